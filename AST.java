@@ -1,5 +1,11 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 enum SignalType {
     INPUT, LATCH_OUTPUT, UPDATE_OUTPUT
@@ -7,8 +13,26 @@ enum SignalType {
 
 public abstract class AST {
     public void error(String msg) {
-        System.err.println(msg);
-        System.exit(-1);
+        throw new SimulationError(msg);
+    }
+}
+
+/* An error in a circuit or its stimulus. main reports it and exits,
+   while the simulation server reports it and goes on with the next
+   job. The checks of a whole circuit report all they find at once, one
+   message per line. */
+
+class SimulationError extends RuntimeException {
+    List<String> errors;
+
+    SimulationError(String msg) {
+        super(msg);
+        errors = Collections.singletonList(msg);
+    }
+
+    SimulationError(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = errors;
     }
 }
 
@@ -29,13 +53,25 @@ abstract class Program extends AST {
    language: the atomic expressions are just Signal (similar to
    variables in expressions) and they can be composed to larger
    expressions with And (Conjunction), Or (Disjunction), and
-   Not (Negation) */
+   Not (Negation). The parser never produces Xor (ExclusiveOr) and
+   Constant, they only come out of the Simplifier. */
 
 abstract class Expr extends AST {
-    abstract public Boolean eval(Environment env);
+    abstract public boolean eval(Environment env);
 
     abstract public Boolean check(Environment env);
 
+    // looks up the slot of every signal in the expression, adding the
+    // names of the ones that are not defined to undefined
+    abstract public void resolve(Environment env, Set<String> undefined);
+
+    // adds the names of the signals the expression reads to names
+    abstract public void signals(List<String> names);
+
+    // evaluates 64 testbenches at once, bit k of lanes[slot] being the
+    // value of that signal in testbench k (see LaneSimulator)
+    abstract public long evalLanes(long[] lanes);
+
     //abstract public SignalType typecheck(Environment env);
 
     //TODO implement a settype and typcheck expressions, that they either are output of  a prev update
@@ -50,7 +86,7 @@ class Conjunction extends Expr {
         this.e2 = e2;
     }
 
-    public Boolean eval(Environment env) {
+    public boolean eval(Environment env) {
         return e1.eval(env) && e2.eval(env);
     }
 
@@ -58,6 +94,20 @@ class Conjunction extends Expr {
         return e1.check(env) && e2.check(env);
     }
 
+    public void resolve(Environment env, Set<String> undefined) {
+        e1.resolve(env, undefined);
+        e2.resolve(env, undefined);
+    }
+
+    public void signals(List<String> names) {
+        e1.signals(names);
+        e2.signals(names);
+    }
+
+    public long evalLanes(long[] lanes) {
+        return e1.evalLanes(lanes) & e2.evalLanes(lanes);
+    }
+
 }
 
 class Disjunction extends Expr {
@@ -68,7 +118,7 @@ class Disjunction extends Expr {
         this.e2 = e2;
     }
 
-    public Boolean eval(Environment env) {
+    public boolean eval(Environment env) {
         return e1.eval(env) || e2.eval(env);
     }
 
@@ -76,6 +126,20 @@ class Disjunction extends Expr {
         return e1.check(env) && e2.check(env);
     }
 
+    public void resolve(Environment env, Set<String> undefined) {
+        e1.resolve(env, undefined);
+        e2.resolve(env, undefined);
+    }
+
+    public void signals(List<String> names) {
+        e1.signals(names);
+        e2.signals(names);
+    }
+
+    public long evalLanes(long[] lanes) {
+        return e1.evalLanes(lanes) | e2.evalLanes(lanes);
+    }
+
 }
 
 class Negation extends Expr {
@@ -85,32 +149,114 @@ class Negation extends Expr {
         this.e = e;
     }
 
-    public Boolean eval(Environment env) {
+    public boolean eval(Environment env) {
         return !e.eval(env);
     }
     public Boolean check(Environment env) {
         return e.check(env);
     }
 
+    public void resolve(Environment env, Set<String> undefined) {
+        e.resolve(env, undefined);
+    }
+
+    public void signals(List<String> names) {
+        e.signals(names);
+    }
+
+    public long evalLanes(long[] lanes) {
+        return ~e.evalLanes(lanes);
+    }
+
+}
+
+class ExclusiveOr extends Expr {
+    Expr e1, e2;
+
+    ExclusiveOr(Expr e1, Expr e2) {
+        this.e1 = e1;
+        this.e2 = e2;
+    }
+
+    public boolean eval(Environment env) {
+        return e1.eval(env) ^ e2.eval(env);
+    }
+
+    public Boolean check(Environment env) {
+        return e1.check(env) && e2.check(env);
+    }
+
+    public void resolve(Environment env, Set<String> undefined) {
+        e1.resolve(env, undefined);
+        e2.resolve(env, undefined);
+    }
+
+    public void signals(List<String> names) {
+        e1.signals(names);
+        e2.signals(names);
+    }
+
+    public long evalLanes(long[] lanes) {
+        return e1.evalLanes(lanes) ^ e2.evalLanes(lanes);
+    }
+}
+
+class Constant extends Expr {
+    boolean value;
+
+    Constant(boolean value) {
+        this.value = value;
+    }
+
+    public boolean eval(Environment env) {
+        return value;
+    }
+
+    public Boolean check(Environment env) {
+        return true;
+    }
+
+    public void resolve(Environment env, Set<String> undefined) {
+    }
+
+    public void signals(List<String> names) {
+    }
+
+    public long evalLanes(long[] lanes) {
+        return value ? -1L : 0L;
+    }
 }
 
 class Signal extends Expr {
     String varname; // a signal is just identified by a name
+    int slot = -1;  // and during simulation by its slot in the environment
 
     Signal(String varname) {
         this.varname = varname;
     }
 
-    public Boolean eval(Environment env) {
-        return env.getVariable(varname);
+    public boolean eval(Environment env) {
+        return env.get(slot);
     }
 
+    // the signal must have a type already, after resolve
     public Boolean check(Environment env) {
-        if (env.typecheck(varname) != null){
-            return true;
-        } else {
-            return false;
-        }
+        return env.typeOf(slot) != null;
+    }
+
+    public void resolve(Environment env, Set<String> undefined) {
+        if (env.hasVariable(varname))
+            slot = env.slotOf(varname);
+        else
+            undefined.add(varname);
+    }
+
+    public void signals(List<String> names) {
+        names.add(varname);
+    }
+
+    public long evalLanes(long[] lanes) {
+        return lanes[slot];
     }
 }
 
@@ -119,6 +265,8 @@ class Signal extends Expr {
 class Latch extends AST {
     String inputname;
     String outputname;
+    int inputslot = -1;
+    int outputslot = -1;
 
     Latch(String inputname, String outputname) {
         this.inputname = inputname;
@@ -127,19 +275,35 @@ class Latch extends AST {
 
     //TODO we should make a generic typechecker, that just returns the type and then use it in here. SO gør intialize om
     //so we should check the latchoutput , is not already in the inputs
-    public void initialize(Environment env) {
-        SignalType t2 = env.typecheck(outputname);
+    public void typecheck(Environment env, List<String> errors) {
+        SignalType t2 = env.typeOf(outputslot);
         if (t2 == null) {
-            env.setVariable(outputname, false);
+            env.setSignalType(outputslot, SignalType.LATCH_OUTPUT);
         } else {
-            System.out.println("unexpected Latch signal");
-            System.exit(-1);
+            errors.add("unexpected Latch signal: " + outputname);
         }
     }
 
+    public void initialize(Environment env) {
+        env.set(outputslot, false);
+    }
+
     public void nextCycle(Environment env) {
         //System.out.println("In next cycle latch inputname: " + inputname);
-        env.setVariable(outputname, env.getVariable(inputname));
+        env.set(outputslot, env.get(inputslot));
+    }
+
+    // the output is defined before the updates, while the input can be
+    // any signal of the circuit, so it is resolved after all of them
+    public void resolveOutput(Environment env) {
+        outputslot = env.declare(outputname);
+    }
+
+    public void resolveInput(Environment env, Set<String> undefined) {
+        if (env.hasVariable(inputname))
+            inputslot = env.slotOf(inputname);
+        else
+            undefined.add(inputname);
     }
 
 }
@@ -150,6 +314,7 @@ class Latch extends AST {
 class Update extends AST {
     String name;
     Expr e;
+    int slot = -1;
 
     Update(String name, Expr e) {
         this.e = e;
@@ -158,19 +323,31 @@ class Update extends AST {
     }
 
     public void eval(Environment env) {
-        env.setVariable(name, e.eval(env));
+        env.set(slot, e.eval(env));
     }
 
-    public Boolean typecheck(Environment env){
-        if (e.check(env) && env.typecheck(name)==null) {
-            env.setSignalType(name,SignalType.UPDATE_OUTPUT);
-            return true;
+    // an update can only use signals defined before it
+    public void resolve(Environment env, Set<String> undefined) {
+        e.resolve(env, undefined);
+        slot = env.declare(name);
+    }
+
+    public Boolean typecheck(Environment env, List<String> errors){
+        if (!e.check(env)) {
+            errors.add("update of " + name + " reads a signal that is not defined before it");
+            return false;
         }
+        return define(env, errors);
+    }
 
-        else {
-            System.out.println("Unexpected update signal");
+    // gives the signal its type, unless it has one already
+    public Boolean define(Environment env, List<String> errors) {
+        if (env.typeOf(slot) != null) {
+            errors.add("unexpected update signal: " + name + " is already defined");
             return false;
         }
+        env.setSignalType(slot, SignalType.UPDATE_OUTPUT);
+        return true;
     }
 
     public Boolean updateIsValid(Update update, Environment env) {
@@ -184,33 +361,139 @@ class Update extends AST {
     }
 }
 
-/* A Trace is a signal and an array of Booleans, for instance each
+/* A Trace is a signal and a sequence of bits, for instance each
    line of the .simulate section that specifies the traces for the
    input signals of the circuit. It is suggested to use this class
    also for the output signals of the circuit in the second
    assignment.
+
+   The bits are packed 64 to a long: bit i of the trace is bit i%64
+   of words[i/64], and the bits of the last word beyond the length are
+   always 0. For long runs this takes a 64th of the memory an array of
+   Booleans would.
 */
 
 class Trace extends AST {
     String signal;
-    Boolean[] values;
+    long[] words;
+    int length;
+    int slot = -1;
 
-    Trace(String signal, Boolean[] values) {
+    // a trace of the given length with all bits 0
+    Trace(String signal, int length) {
         this.signal = signal;
-        this.values = values;
+        this.length = length;
+        this.words = new long[(length + 63) >>> 6];
     }
 
-    public String toString() {
-        String signalTrace = "";
-        for (boolean value : values) {
-            if (value)
-                signalTrace += "1";
-            else
-                signalTrace += "0";
+    // a trace from a BITSTRING, a string of the characters 0 and 1
+    Trace(String signal, String bits) {
+        this(signal, bits.length());
+        for (int i = 0; i < length; i++)
+            if (bits.charAt(i) == '1')
+                words[i >>> 6] |= 1L << i;
+    }
+
+    public boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public void set(int i, boolean value) {
+        if (value)
+            words[i >>> 6] |= 1L << i;
+        else
+            words[i >>> 6] &= ~(1L << i);
+    }
+
+    // bits 64*w to 64*w+63 of the trace
+    public long getWord(int w) {
+        return words[w];
+    }
 
+    public void setWord(int w, long bits) {
+        if (w == words.length - 1 && (length & 63) != 0)
+            bits &= (1L << length) - 1;
+        words[w] = bits;
+    }
+
+    // the 64 bits from bit pos on, which need not start a word; pos+63
+    // must be within the trace
+    public long bits(int pos) {
+        int w = pos >>> 6, b = pos & 63;
+        if (b == 0)
+            return words[w];
+        return (words[w] >>> b) | (words[w + 1] << (64 - b));
+    }
+
+    /* Makes the bits from from on a repetition of the period bits
+       before them, where the trace already repeats with that period.
+       Once a word's worth is done, whole words are copied. */
+    public void repeat(int from, int period) {
+        int step = period;      // a multiple of the period of at least 64
+        while (step < 64)
+            step += period;
+        int i = from;
+        for (; i < length && (i < from + step || (i & 63) != 0); i++)
+            set(i, get(i - period));
+        for (; i + 64 <= length; i += 64)
+            words[i >>> 6] = bits(i - step);
+        for (; i < length; i++)
+            set(i, get(i - period));
+    }
+
+    /* Writes the trace as a BITSTRING followed by the signal name, a
+       word at a time through a fixed buffer, so printing takes time
+       linear in the length and no string of the whole trace is built. */
+    public void print(PrintWriter out) {
+        char[] buffer = new char[8192];
+        int pos = 0;
+        for (int w = 0; w < words.length; w++) {
+            long bits = words[w];
+            int n = Math.min(64, length - 64 * w);
+            if (pos + n > buffer.length) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            for (int b = 0; b < n; b++)
+                buffer[pos++] = (char) ('0' + ((bits >>> b) & 1));
         }
-        return signalTrace;
+        out.write(buffer, 0, pos);
+        out.write(' ');
+        out.write(signal);
+        out.println();
+    }
+
+    // the bits from..to-1 of the trace
+    public Trace window(int from, int to) {
+        Trace trace = new Trace(signal, to - from);
+        for (int i = from; i < to; i++)
+            if (get(i))
+                trace.words[(i - from) >>> 6] |= 1L << (i - from);
+        return trace;
+    }
+
+    public static List<Trace> window(List<Trace> traces, int from, int to) {
+        List<Trace> windows = new ArrayList<Trace>();
+        for (Trace trace : traces)
+            windows.add(trace.window(from, to));
+        return windows;
     }
+
+    // the trace as a BITSTRING
+    public String toString() {
+        char[] signalTrace = new char[length];
+        for (int i = 0; i < length; i++)
+            signalTrace[i] = get(i) ? '1' : '0';
+        return new String(signalTrace);
+    }
+}
+
+/* A hook into Circuit.step for the engines that watch the reference
+   interpreter rather than change it (see Profile): every update is
+   evaluated through eval instead of Update.eval. */
+
+interface StepWatch {
+    void eval(int u, Update update, Environment env);
 }
 
 /* The main data structure of this simulator: the entire circuit with
@@ -241,6 +524,7 @@ class Circuit extends AST {
     List<Trace> siminputs;
     List<Trace> simoutputs;
     int simlength;
+    List<List<Update>> levels; // the updates grouped by Levelizer
 
     Circuit(String name,
             List<String> inputs,
@@ -254,93 +538,245 @@ class Circuit extends AST {
         this.latches = latches;
         this.updates = updates;
         this.siminputs = siminputs;
-        simlength = siminputs.get(0).values.length;
+        simlength = siminputs.isEmpty() ? 0 : siminputs.get(0).length;
         simoutputs = new ArrayList<Trace>();
     }
 
-    public void initialize(Environment env) {
-        for (Trace trace : siminputs) {
-            if (simlength == 0) {
-                System.err.println("Siminput value array length 0.");
-                System.exit(-1);
-            }
-            env.setVariable(trace.signal, trace.values[0]);
+    // rewrites every update with the Simplifier, returns the number of
+    // expression nodes removed
+    public int simplify() {
+        int removed = 0;
+        for (Update update : updates) {
+            Expr e = Simplifier.simplify(update.e);
+            removed += Simplifier.size(update.e) - Simplifier.size(e);
+            update.e = e;
+        }
+        return removed;
+    }
 
-            if (env.typecheck(trace.signal) == null) {
-                env.setSignalType(trace.signal, SignalType.INPUT);
-            } else {
-                System.out.println("input duplicated.");
-                System.exit(-1);
-            }
+    /* Puts the updates in dependency order, so that every update comes
+       after the updates it reads, whatever order they were written in.
+       A combinational loop is reported as an error. */
+    public void levelize() {
+        levels = new Levelizer(updates).levels();
+        List<Update> ordered = new ArrayList<Update>();
+        for (List<Update> level : levels)
+            ordered.addAll(level);
+        updates = ordered;
+    }
 
+    /* The resolve step gives each signal its slot in env, in the same
+       order in which the simulator defines them: first the inputs and
+       latch outputs, then every update in turn, after levelizing
+       them. It has to run before typecheck and initialize. Every
+       input trace of another length than the first, every
+       combinational loop and every undefined signal is reported, not
+       just the first. */
+    public void resolve(Environment env) {
+        List<String> errors = new ArrayList<String>();
+        if (siminputs.isEmpty()) {
+            errors.add("No simulation inputs in the .simulate section.");
+            // the declared inputs stand in for them, so that they are
+            // not reported as undefined as well
+            for (String input : inputs)
+                env.declare(input);
+        }
+        for (Trace trace : siminputs)
+            if (trace.length != simlength)
+                errors.add("Input " + trace.signal + " has " + trace.length + " cycles, not " + simlength);
+
+        boolean loops = false;
+        try {
+            levelize();
+        } catch (SimulationError e) {
+            errors.addAll(e.errors);
+            loops = true;
+        }
 
+        for (Trace trace : siminputs)
+            trace.slot = env.declare(trace.signal);
+
+        for (Latch latch : latches)
+            latch.resolveOutput(env);
+
+        // with a loop the updates are left in source order, so the
+        // signals on it are declared first, as they are not undefined
+        if (loops)
+            for (Update update : updates)
+                env.declare(update.name);
+
+        // each undefined name once, in the order they come up
+        Set<String> undefined = new LinkedHashSet<String>();
+        for (Update update : updates)
+            update.resolve(env, undefined);
+
+        for (Latch latch : latches)
+            latch.resolveInput(env, undefined);
+        for (String name : undefined)
+            errors.add("Variable not defined: " + name);
+        if (!errors.isEmpty()) {
+            typecheck(env, errors, false);
+            throw new SimulationError(errors);
         }
+    }
 
-        for (String output : outputs) {
-            Boolean[] values = new Boolean[simlength];
-            simoutputs.add(new Trace(output, values));
+    /* The type checking is shared by all the simulation engines. It
+       goes once over the signals in the order resolve gave them their
+       slots, so that a signal is defined exactly when it has a type,
+       and reports all the errors together. */
+    public void typecheck(Environment env) {
+        List<String> errors = new ArrayList<String>();
+        typecheck(env, errors, true);
+        if (!errors.isEmpty())
+            throw new SimulationError(errors);
+    }
 
+    // without reads only the definitions are checked, for a circuit
+    // whose reads resolve has already found wrong
+    private void typecheck(Environment env, List<String> errors, boolean reads) {
+        for (Trace trace : siminputs) {
+            if (env.typeOf(trace.slot) == null) {
+                env.setSignalType(trace.slot, SignalType.INPUT);
+            } else {
+                errors.add("input duplicated: " + trace.signal);
+            }
         }
 
         for (Latch latch : latches) {
-            latch.initialize(env);
-            env.setSignalType(latch.outputname, SignalType.LATCH_OUTPUT);
-
+            latch.typecheck(env, errors);
         }
 
         for (Update update : updates) {
-            update.typecheck(env);
-            update.eval(env);
-
+            if (reads)
+                update.typecheck(env, errors);
+            else
+                update.define(env, errors);
         }
-        for (Trace trace : simoutputs) {
-            trace.values[0] = env.getVariable(trace.signal);
+    }
+
+    // empty traces of simlength for the outputs, ready to be filled in
+    public List<Trace> outputTraces(Environment env) {
+        List<Trace> traces = new ArrayList<Trace>();
+        for (String output : outputs) {
+            Trace trace = new Trace(output, simlength);
+            trace.slot = env.slotOf(output);
+            traces.add(trace);
         }
+        return traces;
+    }
 
+    /* A cycle of the simulation is always the same three steps: the
+       inputs get their values of the cycle, the latches move (in the
+       order of latches, and to false in cycle 0), and the updates are
+       evaluated in order. They are here once, and every engine that
+       runs cycles of the interpreter is put together from them. */
 
-        //System.out.println("Printing the init environment: \n " + env.toString() + "\n\n");
+    // sets the inputs to their values in cycle i
+    public void inputs(Environment env, int i) {
+        for (Trace trace : siminputs)
+            env.set(trace.slot, trace.get(i));
     }
 
-    public void nextCycle(Environment env, int i) {
-        for (Trace trace : siminputs) {
-            if (trace.values.length == 0) {
-                System.err.println("Siminput value array length 0.");
-                System.exit(-1);
-            }
-            env.setVariable(trace.signal, trace.values[i]);
+    // moves the latches at the start of cycle i
+    public void latch(Environment env, int i) {
+        for (Latch latch : latches) {
+            if (i == 0)
+                latch.initialize(env);
+            else
+                latch.nextCycle(env);
+        }
+    }
 
+    // evaluates the updates, through watch if it is not null
+    public void evaluate(Environment env, StepWatch watch) {
+        if (watch == null) {
+            for (Update update : updates)
+                update.eval(env);
+        } else {
+            for (int u = 0; u < updates.size(); u++)
+                watch.eval(u, updates.get(u), env);
         }
+    }
 
-        for (Latch latch : latches) {
-            latch.nextCycle(env);
+    private void record(Environment env, int i) {
+        for (Trace trace : simoutputs)
+            trace.set(i, env.get(trace.slot));
+    }
 
-        }
+    public void initialize(Environment env) {
+        if (simlength == 0)
+            error("Siminput value array length 0.");
+        simoutputs.addAll(outputTraces(env));
+        step(env, 0);
+        record(env, 0);
+    }
 
-        for (Update update : updates) {
-            update.eval(env);
+    /* Like initialize, but for a run that starts in cycle i with the
+       latch outputs given by state (in the order of latches), as taken
+       by Snapshot. With i = 0 and all of state false it is the same as
+       initialize. */
+    public void resume(Environment env, int i, boolean[] state) {
+        simoutputs.addAll(outputTraces(env));
+        restore(env, i, state);
+        record(env, i);
+    }
 
-        }
+    public void nextCycle(Environment env, int i) {
+        step(env, i);
+        record(env, i);
+    }
 
-        for (Trace trace : simoutputs) {
-            trace.values[i] = env.getVariable(trace.signal);
-        }
+    /* Simulates cycle i in env without filling in any trace, for the
+       engines that hand the values on as they go (see Vcd). The first
+       cycle does what initialize does. */
+    public void step(Environment env, int i) {
+        step(env, i, null);
+    }
 
-        //System.out.println("Printing env for cycle " + i + ": \n " + env.toString() + "\n\n");
+    public void step(Environment env, int i, StepWatch watch) {
+        inputs(env, i);
+        latch(env, i);
+        evaluate(env, watch);
     }
 
-    public void runSimulator(Environment env) {
+    // simulates cycle i with the latch outputs given by state instead
+    // of moved by the latches
+    public void restore(Environment env, int i, boolean[] state) {
+        inputs(env, i);
+        for (int k = 0; k < latches.size(); k++)
+            env.set(latches.get(k).outputslot, state[k]);
+        evaluate(env, null);
+    }
+
+    // runs the whole simulation, leaving the result in simoutputs
+    public void simulate(Environment env) {
+        resolve(env);
+        typecheck(env);
         initialize(env);
 
         for (int i = 1; i < simlength; i++) {
             nextCycle(env, i);
         }
+    }
 
-        for (Trace trace : siminputs)
-            System.out.println(trace.toString() + " " + trace.signal);
+    public void runSimulator(Environment env) {
+        simulate(env);
+        printTraces(siminputs, simoutputs);
+    }
 
-        for (Trace trace : simoutputs)
-            System.out.println(trace.toString() + " " + trace.signal);
+    public static void printTraces(List<Trace> inputs, List<Trace> outputs) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        printTraces(out, inputs, outputs);
+    }
+
+    public static void printTraces(PrintWriter out, List<Trace> inputs, List<Trace> outputs) {
+        for (Trace trace : inputs)
+            trace.print(out);
+
+        for (Trace trace : outputs)
+            trace.print(out);
 
-        System.out.println(" ");
+        out.println(" ");
+        out.flush();
     }
 }
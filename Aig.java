@@ -0,0 +1,170 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/* An and-inverter graph of the updates of a circuit. Every node is
+   either the constant false (node 0), a variable (an input or a latch
+   output), or the And of two literals, where a literal is 2*node,
+   plus 1 if it is negated. Or, Not and Xor are all expressed with And
+   and negated literals.
+
+   The And nodes are hash-consed ("structural hashing"): asking for the
+   And of the same two literals twice gives the same node, so a
+   subexpression that occurs in several updates, such as Read && a0 in
+   04-von-Neumann.hw, becomes a single node.
+
+   toCircuit turns the graph back into a Circuit in which every node
+   used more than once is an update of its own, so any engine that
+   runs a Circuit computes each distinct subfunction once per cycle. */
+
+class Aig {
+    private Circuit circuit;
+
+    private int[] fanin0 = new int[16];
+    private int[] fanin1 = new int[16];
+    private String[] names = new String[16]; // for variables and shared nodes
+    private int nodes = 1;
+    private HashMap<Long, Integer> strash = new HashMap<Long, Integer>();
+
+    // the literal of every signal of the circuit
+    private HashMap<String, Integer> literals = new HashMap<String, Integer>();
+
+    Aig(Circuit circuit) {
+        this.circuit = circuit;
+        circuit.levelize();
+        for (Trace trace : circuit.siminputs)
+            literals.put(trace.signal, variable(trace.signal));
+        for (Latch latch : circuit.latches)
+            literals.put(latch.outputname, variable(latch.outputname));
+        for (Update update : circuit.updates)
+            literals.put(update.name, build(update.e));
+    }
+
+    public int andNodes() {
+        return nodes - 1 - circuit.siminputs.size() - circuit.latches.size();
+    }
+
+    private int variable(String name) {
+        int n = newNode(0, 0);
+        names[n] = name;
+        return 2 * n;
+    }
+
+    private int newNode(int a, int b) {
+        if (nodes == fanin0.length) {
+            fanin0 = Arrays.copyOf(fanin0, 2 * nodes);
+            fanin1 = Arrays.copyOf(fanin1, 2 * nodes);
+            names = Arrays.copyOf(names, 2 * nodes);
+        }
+        fanin0[nodes] = a;
+        fanin1[nodes] = b;
+        return nodes++;
+    }
+
+    private boolean isAnd(int n) {
+        return n > 0 && fanin0[n] != fanin1[n];
+    }
+
+    // the literal for a && b, reusing an existing node if there is one
+    public int and(int a, int b) {
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if (a == 0 || a == (b ^ 1))
+            return 0;
+        if (a == 1 || a == b)
+            return b;
+        long key = ((long) a << 32) | b;
+        Integer n = strash.get(key);
+        if (n == null) {
+            n = newNode(a, b);
+            strash.put(key, n);
+        }
+        return 2 * n;
+    }
+
+    public int or(int a, int b) {
+        return and(a ^ 1, b ^ 1) ^ 1;
+    }
+
+    private int build(Expr e) {
+        if (e instanceof Signal) {
+            Integer lit = literals.get(((Signal) e).varname);
+            if (lit == null) {
+                throw new SimulationError("Variable not defined: " + ((Signal) e).varname);
+            }
+            return lit;
+        } else if (e instanceof Constant) {
+            return ((Constant) e).value ? 1 : 0;
+        } else if (e instanceof Negation) {
+            return build(((Negation) e).e) ^ 1;
+        } else if (e instanceof Conjunction) {
+            return and(build(((Conjunction) e).e1), build(((Conjunction) e).e2));
+        } else if (e instanceof Disjunction) {
+            return or(build(((Disjunction) e).e1), build(((Disjunction) e).e2));
+        } else {
+            int a = build(((ExclusiveOr) e).e1);
+            int b = build(((ExclusiveOr) e).e2);
+            return or(and(a, b ^ 1), and(a ^ 1, b));
+        }
+    }
+
+    /* The circuit computed by the graph. A node keeps its own update if
+       it is used more than once, named after the update that computes it
+       if there is one and "aig$" plus its number otherwise. All other
+       nodes are inlined into the expression that uses them. */
+    public Circuit toCircuit() {
+        int[] uses = new int[nodes];
+        for (int n = 1; n < nodes; n++) {
+            if (isAnd(n)) {
+                uses[fanin0[n] >> 1]++;
+                uses[fanin1[n] >> 1]++;
+            }
+        }
+        List<Update> updates = new ArrayList<Update>();
+        boolean[] defined = new boolean[nodes];
+        for (Update update : circuit.updates) {
+            int lit = literals.get(update.name);
+            uses[lit >> 1]++;
+            if ((lit & 1) == 0 && isAnd(lit >> 1) && names[lit >> 1] == null) {
+                names[lit >> 1] = update.name;
+                defined[lit >> 1] = true;
+            }
+        }
+        for (int n = 1; n < nodes; n++)
+            if (isAnd(n) && uses[n] > 1 && names[n] == null)
+                names[n] = "aig$" + n;
+
+        for (int n = 1; n < nodes; n++)
+            if (isAnd(n) && names[n] != null)
+                updates.add(new Update(names[n], new Conjunction(expr(fanin0[n]), expr(fanin1[n]))));
+        for (Update update : circuit.updates) {
+            int lit = literals.get(update.name);
+            if (!(defined[lit >> 1] && names[lit >> 1].equals(update.name) && (lit & 1) == 0))
+                updates.add(new Update(update.name, expr(lit)));
+        }
+
+        return new Circuit(circuit.name, circuit.inputs, circuit.outputs,
+                           circuit.latches, updates, circuit.siminputs);
+    }
+
+    // the expression for a literal, with the named nodes as signals
+    private Expr expr(int lit) {
+        int n = lit >> 1;
+        boolean negated = (lit & 1) != 0;
+        if (n == 0)
+            return new Constant(negated);
+        if (names[n] != null) {
+            Expr e = new Signal(names[n]);
+            return negated ? new Negation(e) : e;
+        }
+        // !(!a && !b) is written as a || b
+        if (negated && (fanin0[n] & 1) != 0 && (fanin1[n] & 1) != 0)
+            return new Disjunction(expr(fanin0[n] ^ 1), expr(fanin1[n] ^ 1));
+        Expr e = new Conjunction(expr(fanin0[n]), expr(fanin1[n]));
+        return negated ? new Negation(e) : e;
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* An index of Snapshots of a run, for regenerating the traces of any
+   window of cycles later without keeping the traces of the whole run.
+   The main run (run) only keeps a snapshot every so many cycles, so
+   its memory is proportional to the number of snapshots rather than
+   to the cycles times the signals. The snapshots can also be the files
+   an earlier run with -snapshot wrote (load).
+
+   A window [a,b] is regenerated by simulating from the last snapshot
+   at or before a up to b. Every window gets its own Environment, so
+   several windows can be simulated at the same time; the Circuit is
+   only read once it is resolved. */
+
+class Checkpoints {
+    Circuit circuit;
+    Environment env = new Environment();
+    private List<Snapshot> snapshots = new ArrayList<Snapshot>(); // by cycle
+
+    private Checkpoints(Circuit circuit) {
+        this.circuit = circuit;
+        circuit.resolve(env);
+        circuit.typecheck(env);
+        // cycle 0 always starts with the latches false
+        snapshots.add(new Snapshot(circuit.name, Snapshot.fingerprint(circuit), 0, circuit.simlength,
+                                   new boolean[circuit.latches.size()]));
+    }
+
+    /* Simulates the whole stimulus, keeping a snapshot of every cycle
+       that is a multiple of every, and writing it to dir as well if
+       dir is not null. */
+    static Checkpoints run(Circuit p, int every, Path dir) throws IOException {
+        Checkpoints index = new Checkpoints(p);
+        Environment env = index.env;
+        index.cycle(env, 0, index.snapshots.get(0));
+        for (int i = 1; i < p.simlength; i++) {
+            index.cycle(env, i, null);
+            if (i % every == 0) {
+                Snapshot s = Snapshot.take(p, env, i);
+                index.snapshots.add(s);
+                if (dir != null)
+                    s.write(Snapshot.file(dir, p, i));
+            }
+        }
+        return index;
+    }
+
+    // the index of the snapshots of p in dir
+    static Checkpoints load(Circuit p, Path dir) throws IOException {
+        Checkpoints index = new Checkpoints(p);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, p.name + "-*.snap")) {
+            for (Path file : files) {
+                Snapshot s = Snapshot.read(file);
+                if (s.fingerprint != Snapshot.fingerprint(p) || s.simlength != p.simlength)
+                    throw new SimulationError(file + " is not a snapshot of circuit " + p.name
+                                              + " with this stimulus.");
+                if (s.cycle > 0)
+                    index.snapshots.add(s);
+            }
+        }
+        Collections.sort(index.snapshots, (s, t) -> Integer.compare(s.cycle, t.cycle));
+        return index;
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    // simulates cycle i in env, with the latch outputs from the snapshot
+    // if there is one, and moved by the latches otherwise
+    private void cycle(Environment env, int i, Snapshot from) {
+        if (from != null)
+            circuit.restore(env, i, from.latches);
+        else
+            circuit.step(env, i);
+    }
+
+    // the last snapshot at or before cycle i
+    private Snapshot before(int i) {
+        int lo = 0, hi = snapshots.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (snapshots.get(mid).cycle <= i)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return snapshots.get(lo);
+    }
+
+    // the traces of the outputs in the cycles a to b
+    public List<Trace> window(int a, int b) {
+        if (a < 0 || a > b || b >= circuit.simlength)
+            throw new SimulationError("Window " + a + ":" + b + " is not within the " + circuit.simlength + " cycles.");
+        Environment env = new Environment(this.env);
+        List<Trace> outputs = new ArrayList<Trace>();
+        for (String output : circuit.outputs) {
+            Trace trace = new Trace(output, b - a + 1);
+            trace.slot = env.slotOf(output);
+            outputs.add(trace);
+        }
+
+        Snapshot from = before(a);
+        for (int i = from.cycle; i <= b; i++) {
+            cycle(env, i, i == from.cycle ? from : null);
+            if (i >= a)
+                for (Trace trace : outputs)
+                    trace.set(i - a, env.get(trace.slot));
+        }
+        return outputs;
+    }
+
+    // the output traces of all the windows, simulated on jobs threads
+    public List<List<Trace>> windows(List<int[]> windows, int jobs) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs));
+        List<Future<List<Trace>>> results = new ArrayList<Future<List<Trace>>>();
+        for (int[] w : windows)
+            results.add(pool.submit(() -> window(w[0], w[1])));
+        pool.shutdown();
+
+        List<List<Trace>> traces = new ArrayList<List<Trace>>();
+        try {
+            for (Future<List<Trace>> result : results)
+                traces.add(result.get());
+        } catch (Exception e) {
+            if (e.getCause() instanceof SimulationError)
+                throw (SimulationError) e.getCause();
+            throw new SimulationError("Regenerating a window failed: " + e.getCause());
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,255 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/* A cache on disk of the circuits of .hw files, for the -cache option,
+   so an unchanged design is not lexed, parsed and optimized again on
+   every run. The key is the SHA-256 of the text before the .simulate
+   keyword together with the options that change the circuit (-aig and
+   -O): the stimulus is not part of it, as the StimulusScanner reads it
+   quickly from the file anyway, so a design with a new stimulus still
+   hits the cache.
+
+   A circuit is cached after it has been resolved, type checked and
+   simulated, with its updates in dependency order, in a compact binary
+   form: all signal names once in a table, and the expressions in
+   prefix order with a byte per operator and the table index of every
+   signal. The reports of -aig and -O are kept with it, so a run from
+   the cache prints the same as one without it. A CRC-32 at the end
+   makes a damaged entry count as missing.
+
+   The Server also keeps the circuits in memory, in resident, where
+   they are found by the same key without reading any file. */
+
+class CircuitCache {
+    static final int MAGIC = 0x48574332; // "HWC2"
+    private static final int SIGNAL = 0, CONSTANT = 1, NEGATION = 2, CONJUNCTION = 3,
+        DISJUNCTION = 4, EXCLUSIVE_OR = 5;
+
+    // the circuits in memory by key, null if they are not kept
+    static Map<String, CircuitCache> resident = null;
+
+    private String key;         // null if the file has no .simulate
+    private Path file;          // the cache entry, null if there is no directory
+    private byte[] bytes;
+    private int simulate;
+    private Circuit circuit;    // the circuit of a resident entry
+    List<String> reports = new ArrayList<String>();
+
+    // the entry for the text of a .hw file in bytes
+    CircuitCache(Path dir, byte[] bytes, boolean aig, boolean optimize) {
+        this.bytes = bytes;
+        simulate = new StimulusScanner(bytes).find();
+        if (simulate < 0)
+            return;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(bytes, 0, simulate);
+            sha.update((byte) (aig ? 1 : 0));
+            sha.update((byte) (optimize ? 1 : 0));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : sha.digest())
+                hex.append(String.format("%02x", b));
+            key = hex.toString();
+            if (dir != null)
+                file = dir.resolve(key + ".hwc");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256
+        }
+    }
+
+    /* The circuit from the cache, with the stimulus of the file, or null
+       if it is not in the cache. An entry that cannot be read counts
+       as not there, also when it is cut short or corrupt and an index or
+       a count in it is out of range. */
+    public Circuit load() {
+        if (key == null)
+            return null;
+        CircuitCache entry = resident == null ? null : resident.get(key);
+        if (entry != null) {
+            reports.addAll(entry.reports);
+            Circuit p = entry.circuit;
+            return new Circuit(p.name, p.inputs, p.outputs, p.latches, p.updates,
+                               new StimulusScanner(bytes).scan(simulate));
+        }
+        if (file == null || !Files.exists(file))
+            return null;
+        Circuit p;
+        List<String> cachedreports = new ArrayList<String>();
+        try {
+            // the magic number, the entry, and the CRC-32 of the entry
+            byte[] data = Files.readAllBytes(file);
+            ByteBuffer frame = ByteBuffer.wrap(data);
+            if (data.length < 8 || frame.getInt(0) != MAGIC)
+                return null;
+            CRC32 crc = new CRC32();
+            crc.update(data, 4, data.length - 8);
+            if ((int) crc.getValue() != frame.getInt(data.length - 4))
+                return null;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 4, data.length - 8));
+            int count = in.readInt();
+            if (count < 0 || count > data.length)
+                return null; // every name takes at least a byte
+            String[] names = new String[count];
+            for (int k = 0; k < names.length; k++)
+                names[k] = in.readUTF();
+
+            String name = names[in.readInt()];
+            List<String> inputs = readNames(in, names);
+            List<String> outputs = readNames(in, names);
+            List<Latch> latches = new ArrayList<Latch>();
+            for (int k = in.readInt(); k > 0; k--)
+                latches.add(new Latch(names[in.readInt()], names[in.readInt()]));
+            List<Update> updates = new ArrayList<Update>();
+            for (int k = in.readInt(); k > 0; k--)
+                updates.add(new Update(names[in.readInt()], readExpr(in, names)));
+            for (int k = in.readInt(); k > 0; k--)
+                cachedreports.add(in.readUTF());
+            p = new Circuit(name, inputs, outputs, latches, updates, new ArrayList<Trace>());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        reports.addAll(cachedreports);
+        return new Circuit(p.name, p.inputs, p.outputs, p.latches, p.updates,
+                           new StimulusScanner(bytes).scan(simulate));
+    }
+
+    private static List<String> readNames(DataInputStream in, String[] names) throws IOException {
+        List<String> list = new ArrayList<String>();
+        for (int k = in.readInt(); k > 0; k--)
+            list.add(names[in.readInt()]);
+        return list;
+    }
+
+    private static Expr readExpr(DataInputStream in, String[] names) throws IOException {
+        switch (in.readByte()) {
+        case SIGNAL:      return new Signal(names[in.readInt()]);
+        case CONSTANT:    return new Constant(in.readBoolean());
+        case NEGATION:    return new Negation(readExpr(in, names));
+        case CONJUNCTION: return new Conjunction(readExpr(in, names), readExpr(in, names));
+        case DISJUNCTION: return new Disjunction(readExpr(in, names), readExpr(in, names));
+        case EXCLUSIVE_OR: return new ExclusiveOr(readExpr(in, names), readExpr(in, names));
+        default:          throw new IOException("bad expression in the cache");
+        }
+    }
+
+    /* Puts p in the cache, once it has been simulated, so it is known
+       to resolve and type check. It is written to a temporary file that
+       is moved in place, so runs at the same time never read half an
+       entry. */
+    public void store(Circuit p) throws IOException {
+        if (key == null)
+            return;
+        if (resident != null) {
+            circuit = p;
+            resident.put(key, this);
+        }
+        bytes = null; // the stimulus is not kept with the circuit
+        if (file == null)
+            return;
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "hwc", ".tmp");
+        HashMap<String, Integer> table = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        index(p.name, table, names);
+        for (String s : p.inputs)
+            index(s, table, names);
+        for (String s : p.outputs)
+            index(s, table, names);
+        for (Latch latch : p.latches) {
+            index(latch.inputname, table, names);
+            index(latch.outputname, table, names);
+        }
+        for (Update update : p.updates) {
+            index(update.name, table, names);
+            List<String> signals = new ArrayList<String>();
+            update.e.signals(signals);
+            for (String s : signals)
+                index(s, table, names);
+        }
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(entry)) {
+            out.writeInt(names.size());
+            for (String s : names)
+                out.writeUTF(s);
+            out.writeInt(table.get(p.name));
+            writeNames(out, p.inputs, table);
+            writeNames(out, p.outputs, table);
+            out.writeInt(p.latches.size());
+            for (Latch latch : p.latches) {
+                out.writeInt(table.get(latch.inputname));
+                out.writeInt(table.get(latch.outputname));
+            }
+            out.writeInt(p.updates.size());
+            for (Update update : p.updates) {
+                out.writeInt(table.get(update.name));
+                writeExpr(out, update.e, table);
+            }
+            out.writeInt(reports.size());
+            for (String s : reports)
+                out.writeUTF(s);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(entry.toByteArray());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            entry.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void index(String name, HashMap<String, Integer> table, List<String> names) {
+        if (!table.containsKey(name)) {
+            table.put(name, names.size());
+            names.add(name);
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> list, HashMap<String, Integer> table)
+        throws IOException {
+        out.writeInt(list.size());
+        for (String s : list)
+            out.writeInt(table.get(s));
+    }
+
+    private static void writeExpr(DataOutputStream out, Expr e, HashMap<String, Integer> table) throws IOException {
+        if (e instanceof Signal) {
+            out.writeByte(SIGNAL);
+            out.writeInt(table.get(((Signal) e).varname));
+        } else if (e instanceof Constant) {
+            out.writeByte(CONSTANT);
+            out.writeBoolean(((Constant) e).value);
+        } else if (e instanceof Negation) {
+            out.writeByte(NEGATION);
+            writeExpr(out, ((Negation) e).e, table);
+        } else if (e instanceof Conjunction) {
+            out.writeByte(CONJUNCTION);
+            writeExpr(out, ((Conjunction) e).e1, table);
+            writeExpr(out, ((Conjunction) e).e2, table);
+        } else if (e instanceof Disjunction) {
+            out.writeByte(DISJUNCTION);
+            writeExpr(out, ((Disjunction) e).e1, table);
+            writeExpr(out, ((Disjunction) e).e2, table);
+        } else {
+            out.writeByte(EXCLUSIVE_OR);
+            writeExpr(out, ((ExclusiveOr) e).e1, table);
+            writeExpr(out, ((ExclusiveOr) e).e2, table);
+        }
+    }
+}
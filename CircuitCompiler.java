@@ -0,0 +1,313 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/* The compiled form of a circuit: one cycle of the simulation as
+   straight-line code over the signal values, indexed by slot (see
+   Circuit.resolve). initial is cycle 0, where the latches are still
+   false, and step is every following cycle. */
+
+interface CompiledStep {
+    void initial(boolean[] v);
+
+    void step(boolean[] v);
+}
+
+/* The CircuitCompiler turns a resolved and type checked circuit into a
+   class implementing CompiledStep, written directly as JVM bytecode
+   and loaded as a hidden class, so the JIT sees one long method per
+   cycle instead of the virtual eval calls of the Expr tree. The
+   interpreter in AST.java stays the reference engine.
+
+   Since every value is 0 or 1, the expressions need no jumps: And, Or
+   and Not become iand, ior and "ixor 1" on the array elements. The
+   JVM limits a method to 64KB of code, so the latches and updates are
+   split into several methods that step and initial call in order.
+
+   A slot is pushed as a constant in the code, never through the
+   constant pool: a slot of 32768 or more is put together from two
+   halves with a shift, so the pool only holds the names of the methods
+   and stays far below its limit of 65535 entries however large the
+   circuit is. */
+
+class CircuitCompiler {
+    static final int MAXCODE = 60000;
+
+    // opcodes
+    static final int ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11;
+    static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, BALOAD = 0x33, BASTORE = 0x54;
+    static final int ISHL = 0x78, IAND = 0x7e, IOR = 0x80, IXOR = 0x82, RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+
+    // constant pool of the class being generated
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private DataOutputStream cp = new DataOutputStream(pool);
+    private HashMap<String, Integer> constants = new HashMap<String, Integer>();
+    private int poolsize = 1;
+
+    // methods of the class being generated
+    private ByteArrayOutputStream methodbytes = new ByteArrayOutputStream();
+    private DataOutputStream methods = new DataOutputStream(methodbytes);
+    private int methodcount = 0;
+
+    private int thisclass;
+
+    public static CompiledStep compile(Circuit circuit) {
+        try {
+            byte[] bytes = new CircuitCompiler().generate(circuit);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (CompiledStep) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+        } catch (SimulationError e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new SimulationError("Could not compile circuit " + circuit.name + ": " + t);
+        }
+    }
+
+    // the counterpart of Circuit.simulate for the compiled engine
+    public static void simulate(Circuit circuit) {
+        Environment env = new Environment();
+        circuit.resolve(env);
+        circuit.typecheck(env);
+        CompiledStep code = compile(circuit);
+
+        boolean[] v = new boolean[env.size()];
+        List<Trace> outputs = circuit.outputTraces(env);
+        for (int i = 0; i < circuit.simlength; i++) {
+            for (Trace trace : circuit.siminputs)
+                v[trace.slot] = trace.get(i);
+            if (i == 0)
+                code.initial(v);
+            else
+                code.step(v);
+            for (Trace trace : outputs)
+                trace.set(i, v[trace.slot]);
+        }
+        circuit.simoutputs = outputs;
+    }
+
+    private byte[] generate(Circuit circuit) throws IOException {
+        thisclass = classref("CompiledCircuit");
+        int object = classref("java/lang/Object");
+        int iface = classref("CompiledStep");
+
+        // constructor
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        writeShort(init, methodref(object, "<init>", "()V"));
+        init.write(RETURN);
+        method(0x0001, "<init>", "()V", init.toByteArray(), 1, 1);
+
+        // the bodies of the latch and update methods, one statement at a time
+        List<byte[]> latchcode = new ArrayList<byte[]>();
+        List<Integer> latchstack = new ArrayList<Integer>();
+        for (Latch latch : circuit.latches) {
+            ByteArrayOutputStream s = new ByteArrayOutputStream();
+            s.write(ALOAD_1);
+            push(s, latch.outputslot);
+            s.write(ALOAD_1);
+            push(s, latch.inputslot);
+            s.write(BALOAD);
+            s.write(BASTORE);
+            latchcode.add(s.toByteArray());
+            latchstack.add(5);
+        }
+        List<byte[]> updatecode = new ArrayList<byte[]>();
+        List<Integer> updatestack = new ArrayList<Integer>();
+        for (Update update : circuit.updates) {
+            ByteArrayOutputStream s = new ByteArrayOutputStream();
+            s.write(ALOAD_1);
+            push(s, update.slot);
+            int depth = expr(s, update.e);
+            s.write(BASTORE);
+            updatecode.add(s.toByteArray());
+            updatestack.add(Math.max(3, 2 + depth));
+        }
+        List<Integer> latchmethods = chunks("latches", latchcode, latchstack);
+        List<Integer> updatemethods = chunks("updates", updatecode, updatestack);
+
+        List<Integer> all = new ArrayList<Integer>(latchmethods);
+        all.addAll(updatemethods);
+        method(0x0001, "initial", "([Z)V", calls(updatemethods), 2, 2);
+        method(0x0001, "step", "([Z)V", calls(all), 2, 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream cls = new DataOutputStream(out);
+        cls.writeInt(0xCAFEBABE);
+        cls.writeShort(0);
+        cls.writeShort(52);
+        cls.writeShort(poolsize);
+        cls.write(pool.toByteArray());
+        cls.writeShort(0x0030); // final, super
+        cls.writeShort(thisclass);
+        cls.writeShort(object);
+        cls.writeShort(1);
+        cls.writeShort(iface);
+        cls.writeShort(0); // no fields
+        cls.writeShort(methodcount);
+        cls.write(methodbytes.toByteArray());
+        cls.writeShort(0); // no attributes
+        return out.toByteArray();
+    }
+
+    // emits the code for e and returns the stack depth it needs
+    private int expr(ByteArrayOutputStream s, Expr e) throws IOException {
+        if (e instanceof Signal) {
+            s.write(ALOAD_1);
+            push(s, ((Signal) e).slot);
+            s.write(BALOAD);
+            return 3;
+        } else if (e instanceof Negation) {
+            int d = expr(s, ((Negation) e).e);
+            s.write(ICONST_1);
+            s.write(IXOR);
+            return Math.max(d, 2);
+        } else if (e instanceof Constant) {
+            s.write(((Constant) e).value ? ICONST_1 : ICONST_0);
+            return 1;
+        } else if (e instanceof ExclusiveOr) {
+            ExclusiveOr x = (ExclusiveOr) e;
+            int d1 = expr(s, x.e1);
+            int d2 = expr(s, x.e2);
+            s.write(IXOR);
+            return Math.max(d1, 1 + d2);
+        } else if (e instanceof Conjunction) {
+            Conjunction c = (Conjunction) e;
+            int d1 = expr(s, c.e1);
+            int d2 = expr(s, c.e2);
+            s.write(IAND);
+            return Math.max(d1, 1 + d2);
+        } else {
+            Disjunction d = (Disjunction) e;
+            int d1 = expr(s, d.e1);
+            int d2 = expr(s, d.e2);
+            s.write(IOR);
+            return Math.max(d1, 1 + d2);
+        }
+    }
+
+    // packs the statements into methods of at most MAXCODE bytes each
+    // and returns the method references to call them
+    private List<Integer> chunks(String prefix, List<byte[]> code, List<Integer> stack) throws IOException {
+        List<Integer> refs = new ArrayList<Integer>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int maxstack = 0;
+        for (int i = 0; i <= code.size(); i++) {
+            boolean full = i == code.size() || body.size() + code.get(i).length >= MAXCODE;
+            if (full && body.size() > 0) {
+                String name = prefix + refs.size();
+                body.write(RETURN);
+                method(0x0001, name, "([Z)V", body.toByteArray(), maxstack, 2);
+                refs.add(methodref(thisclass, name, "([Z)V"));
+                body.reset();
+                maxstack = 0;
+            }
+            if (i < code.size()) {
+                body.write(code.get(i));
+                maxstack = Math.max(maxstack, stack.get(i));
+            }
+        }
+        return refs;
+    }
+
+    private byte[] calls(List<Integer> refs) {
+        ByteArrayOutputStream s = new ByteArrayOutputStream();
+        for (int ref : refs) {
+            s.write(ALOAD_0);
+            s.write(ALOAD_1);
+            s.write(INVOKEVIRTUAL);
+            writeShort(s, ref);
+        }
+        s.write(RETURN);
+        return s.toByteArray();
+    }
+
+    private void method(int access, String name, String descriptor, byte[] code,
+                        int maxstack, int maxlocals) throws IOException {
+        methods.writeShort(access);
+        methods.writeShort(utf8(name));
+        methods.writeShort(utf8(descriptor));
+        methods.writeShort(1);
+        methods.writeShort(utf8("Code"));
+        methods.writeInt(12 + code.length);
+        methods.writeShort(maxstack);
+        methods.writeShort(maxlocals);
+        methods.writeInt(code.length);
+        methods.write(code);
+        methods.writeShort(0); // no exception table
+        methods.writeShort(0); // no attributes
+        methodcount++;
+    }
+
+    private void push(ByteArrayOutputStream s, int value) throws IOException {
+        if (value <= 5) {
+            s.write(ICONST_0 + value);
+        } else if (value < 128) {
+            s.write(BIPUSH);
+            s.write(value);
+        } else if (value < 32768) {
+            s.write(SIPUSH);
+            writeShort(s, value);
+        } else {
+            // (value >> 15) << 15 | (value & 0x7fff), with one more on the stack
+            s.write(SIPUSH);
+            writeShort(s, value >> 15);
+            s.write(BIPUSH);
+            s.write(15);
+            s.write(ISHL);
+            s.write(SIPUSH);
+            writeShort(s, value & 0x7fff);
+            s.write(IOR);
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream s, int value) {
+        s.write(value >> 8);
+        s.write(value);
+    }
+
+    // the index of the next constant pool entry
+    private int entry() {
+        if (poolsize >= 65535)
+            throw new SimulationError("Could not compile the circuit: it needs more than 65535 constants.");
+        return poolsize++;
+    }
+
+    private int utf8(String text) throws IOException {
+        Integer index = constants.get("U" + text);
+        if (index == null) {
+            cp.writeByte(1);
+            cp.writeUTF(text);
+            index = entry();
+            constants.put("U" + text, index);
+        }
+        return index;
+    }
+
+    private int classref(String name) throws IOException {
+        int n = utf8(name);
+        cp.writeByte(7);
+        cp.writeShort(n);
+        return entry();
+    }
+
+    private int methodref(int owner, String name, String descriptor) throws IOException {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        cp.writeByte(12);
+        cp.writeShort(n);
+        cp.writeShort(d);
+        int nat = entry();
+        cp.writeByte(10);
+        cp.writeShort(owner);
+        cp.writeShort(nat);
+        return entry();
+    }
+}
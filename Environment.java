@@ -1,48 +1,109 @@
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map.Entry;
+
+/* The environment gives every signal of the circuit a dense slot
+   number (assigned once by Circuit.resolve) and keeps the current
+   signal values in a plain boolean array indexed by that slot, so the
+   simulation loop never hashes a name or boxes a Boolean. The name
+   based methods are still there for code that is not per cycle.
+
+   It is also the symbol table of the type checker: every name is
+   looked up once, when it gets its slot, and its SignalType is kept
+   by slot next to its value, so checking a signal is an array read. */
 
 class Environment {
-    private HashMap<String, Boolean> variableValues = new HashMap<String, Boolean>();
-    private HashMap<String, SignalType> signalType = new HashMap<String, SignalType>();
+    private HashMap<String, Integer> slots = new HashMap<String, Integer>();
+    private String[] names = new String[16];
+    private boolean[] values = new boolean[16];
+    private int size = 0;
+    private SignalType[] types = new SignalType[16];
 
     public Environment() {
     }
+
+    // a copy with the same slots and values, for simulating the same
+    // circuit in another thread
+    public Environment(Environment env) {
+        slots = new HashMap<String, Integer>(env.slots);
+        names = env.names.clone();
+        values = env.values.clone();
+        size = env.size;
+        types = env.types.clone();
+    }
+
+    // the type of the signal, null if it has none yet
     public SignalType typecheck(String signalName) {
-        for (String key :signalType.keySet()) {
-            if(key.equals(signalName))
-                return signalType.get(key);
+        Integer slot = slots.get(signalName);
+        return slot == null ? null : types[slot];
+    }
+
+    public SignalType typeOf(int slot) {
+        return types[slot];
+    }
+
+    // returns the slot of the signal, giving it a new one if it has none yet
+    public int declare(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null)
+            return slot;
+        if (size == values.length) {
+            names = Arrays.copyOf(names, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+            types = Arrays.copyOf(types, 2 * size);
         }
-        //System.out.println("key not found");
-        return null;
+        slots.put(name, size);
+        names[size] = name;
+        return size++;
+    }
+
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null)
+            throw new SimulationError("Variable not defined: " + name);
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String nameOf(int slot) {
+        return names[slot];
+    }
+
+    public boolean get(int slot) {
+        return values[slot];
+    }
+
+    public void set(int slot, boolean value) {
+        values[slot] = value;
     }
+
     public void setVariable(String name, Boolean value) {
-        variableValues.put(name, value);
+        values[declare(name)] = value;
     }
 
     public void setSignalType(String name, SignalType type) {
-        signalType.put(name, type);
+        types[declare(name)] = type;
+    }
+
+    public void setSignalType(int slot, SignalType type) {
+        types[slot] = type;
     }
 
     public Boolean getVariable(String name) {
-        Boolean value = variableValues.get(name);
-        if (value == null) {
-            System.err.println("Variable not defined: " + name);
-            System.exit(-1);
-        }
-        return value;
+        return values[slotOf(name)];
     }
 
     public Boolean hasVariable(String name) {
-        Boolean v = variableValues.get(name);
-        return (v != null);
+        return slots.containsKey(name);
     }
 
     public String toString() {
-        String table = "";
-        for (Entry<String, Boolean> entry : variableValues.entrySet()) {
-            table += entry.getKey() + "\t-> " + entry.getValue() + "\n";
+        StringBuilder table = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            table.append(names[i]).append("\t-> ").append(values[i]).append('\n');
         }
-        return table;
+        return table.toString();
     }
 }
-
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/* An event-driven version of Circuit.simulate. Instead of
+   evaluating every update in every cycle, it only evaluates the
+   updates that read a signal which changed in the current cycle: an
+   input that got a new value, a latch that moved a new value, or an
+   update that was evaluated and came out different. The fanout list
+   of every signal says which updates read it.
+
+   The updates waiting to be evaluated are kept per level (see
+   Levelizer), and the levels are done in order, so an update is only
+   evaluated once all the updates it reads are up to date. */
+
+class EventSimulator {
+    Circuit circuit;
+    Environment env = new Environment();
+
+    private int[][] fanout;     // for every slot, the updates that read it
+    private int[] level;        // for every update, its level
+    private int[][] queue;      // for every level, the updates to evaluate
+    private int[] queued;       // and how many there are
+    private boolean[] scheduled;
+    private long evaluations = 0;
+
+    EventSimulator(Circuit circuit) {
+        this.circuit = circuit;
+        circuit.resolve(env);
+        circuit.typecheck(env);
+
+        List<Update> updates = circuit.updates;
+        int n = updates.size();
+        level = new int[n];
+        scheduled = new boolean[n];
+        queue = new int[circuit.levels.size()][];
+        queued = new int[circuit.levels.size()];
+        int u = 0;
+        for (int l = 0; l < circuit.levels.size(); l++) {
+            queue[l] = new int[circuit.levels.get(l).size()];
+            for (int k = 0; k < queue[l].length; k++)
+                level[u++] = l;
+        }
+
+        List<List<Integer>> readers = new ArrayList<List<Integer>>();
+        for (int slot = 0; slot < env.size(); slot++)
+            readers.add(new ArrayList<Integer>());
+        for (int i = 0; i < n; i++) {
+            List<String> names = new ArrayList<String>();
+            updates.get(i).e.signals(names);
+            for (String name : names) {
+                List<Integer> r = readers.get(env.slotOf(name));
+                if (r.isEmpty() || r.get(r.size() - 1) != i)
+                    r.add(i);
+            }
+        }
+        fanout = new int[env.size()][];
+        for (int slot = 0; slot < fanout.length; slot++) {
+            List<Integer> r = readers.get(slot);
+            fanout[slot] = new int[r.size()];
+            for (int k = 0; k < r.size(); k++)
+                fanout[slot][k] = r.get(k);
+        }
+    }
+
+    private void changed(int slot) {
+        for (int u : fanout[slot]) {
+            if (!scheduled[u]) {
+                scheduled[u] = true;
+                queue[level[u]][queued[level[u]]++] = u;
+            }
+        }
+    }
+
+    // runs the whole simulation, leaving the result in circuit.simoutputs
+    public void simulate() {
+        List<Update> updates = circuit.updates;
+        List<Trace> outputs = circuit.outputTraces(env);
+
+        for (int i = 0; i < circuit.simlength; i++) {
+            for (Trace trace : circuit.siminputs) {
+                boolean value = trace.get(i);
+                if (i == 0) {
+                    env.set(trace.slot, value);
+                } else if (env.get(trace.slot) != value) {
+                    env.set(trace.slot, value);
+                    changed(trace.slot);
+                }
+            }
+
+            if (i == 0) {
+                // everything is new in the first cycle
+                for (Latch latch : circuit.latches)
+                    latch.initialize(env);
+                for (Update update : updates)
+                    update.eval(env);
+                evaluations += updates.size();
+            } else {
+                for (Latch latch : circuit.latches) {
+                    boolean value = env.get(latch.inputslot);
+                    if (env.get(latch.outputslot) != value) {
+                        env.set(latch.outputslot, value);
+                        changed(latch.outputslot);
+                    }
+                }
+                for (int l = 0; l < queue.length; l++) {
+                    for (int k = 0; k < queued[l]; k++) {
+                        Update update = updates.get(queue[l][k]);
+                        scheduled[queue[l][k]] = false;
+                        boolean old = env.get(update.slot);
+                        update.eval(env);
+                        if (env.get(update.slot) != old)
+                            changed(update.slot);
+                    }
+                    evaluations += queued[l];
+                    queued[l] = 0;
+                }
+            }
+
+            for (Trace trace : outputs)
+                trace.set(i, env.get(trace.slot));
+        }
+        circuit.simoutputs = outputs;
+    }
+
+    // the fraction of update evaluations a full evaluation would do
+    public double activity() {
+        long full = (long) circuit.updates.size() * circuit.simlength;
+        return full == 0 ? 0 : (double) evaluations / full;
+    }
+
+    public long evaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* A bit-parallel version of Circuit.runSimulator. Every signal is a
+   long instead of a boolean, and bit k of it is the value of the
+   signal in testbench k, so a single pass over the updates simulates
+   up to 64 independent stimulus sets: the And, Or and Not of the
+   expressions become &, | and ~ on whole words (see Expr.evalLanes),
+   and the latches move all 64 lanes together.
+
+   A testbench is a list of input traces in the order of
+   circuit.siminputs, all of length circuit.simlength. */
+
+class LaneSimulator {
+    static final int LANES = 64;
+
+    Circuit circuit;
+    Environment env; // only used for the slots
+    long[] lanes;    // indexed by those slots
+
+    LaneSimulator(Circuit circuit) {
+        this.circuit = circuit;
+        env = new Environment();
+        circuit.resolve(env);
+        circuit.typecheck(env);
+        lanes = new long[env.size()];
+    }
+
+    // returns for each testbench the traces of the circuit outputs
+    public List<List<Trace>> run(List<List<Trace>> testbenches) {
+        List<List<Trace>> results = new ArrayList<List<Trace>>();
+        for (int first = 0; first < testbenches.size(); first += LANES) {
+            int last = Math.min(first + LANES, testbenches.size());
+            results.addAll(runPass(testbenches.subList(first, last)));
+        }
+        return results;
+    }
+
+    // simulates at most 64 testbenches in one pass over the cycles
+    private List<List<Trace>> runPass(List<List<Trace>> testbenches) {
+        int n = circuit.simlength;
+        List<List<Trace>> results = new ArrayList<List<Trace>>();
+        for (int k = 0; k < testbenches.size(); k++) {
+            List<Trace> outputs = new ArrayList<Trace>();
+            for (String output : circuit.outputs)
+                outputs.add(new Trace(output, n));
+            results.add(outputs);
+        }
+        int[] outputslots = new int[circuit.outputs.size()];
+        for (int j = 0; j < outputslots.length; j++)
+            outputslots[j] = env.slotOf(circuit.outputs.get(j));
+        for (int k = 0; k < testbenches.size(); k++)
+            for (Trace trace : testbenches.get(k))
+                if (trace.length != n)
+                    throw new SimulationError("Testbench " + k + ": trace of " + trace.signal
+                                              + " has the wrong length.");
+
+        /* The traces are turned into lanes 64 cycles at a time: the
+           words of a block of cycles of the testbenches, one row per
+           testbench, transposed give one row per cycle, a lane word. The
+           outputs go back the same way. */
+        int inputs = circuit.siminputs.size();
+        long[][] in = new long[inputs][LANES];
+        long[][] out = new long[outputslots.length][LANES];
+        for (int i = 0; i < n; i++) {
+            int bit = i & 63;
+            if (bit == 0) {
+                for (int j = 0; j < inputs; j++) {
+                    for (int k = 0; k < LANES; k++)
+                        in[j][k] = k < testbenches.size() ? testbenches.get(k).get(j).getWord(i >>> 6) : 0;
+                    transpose(in[j]);
+                }
+            }
+            for (int j = 0; j < inputs; j++)
+                lanes[circuit.siminputs.get(j).slot] = in[j][bit];
+
+            // latches start out false in every lane, like Latch.initialize
+            for (Latch latch : circuit.latches)
+                lanes[latch.outputslot] = (i == 0) ? 0 : lanes[latch.inputslot];
+
+            for (Update update : circuit.updates)
+                lanes[update.slot] = update.e.evalLanes(lanes);
+
+            for (int j = 0; j < outputslots.length; j++)
+                out[j][bit] = lanes[outputslots[j]];
+            if (bit == 63 || i == n - 1) {
+                for (int j = 0; j < outputslots.length; j++) {
+                    for (int b = bit + 1; b < LANES; b++)
+                        out[j][b] = 0;
+                    transpose(out[j]);
+                    for (int k = 0; k < testbenches.size(); k++)
+                        results.get(k).get(j).setWord(i >>> 6, out[j][k]);
+                }
+            }
+        }
+        return results;
+    }
+
+    /* Transposes the 64 by 64 bit matrix whose row r is a[r] (bit c of
+       it being column c), swapping ever smaller blocks of it in place. */
+    static void transpose(long[] a) {
+        long m = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>= 1, m ^= m << j) {
+            for (int k = 0; k < 64; k = ((k | j) + 1) & ~j) {
+                long t = ((a[k] >>> j) ^ a[k | j]) & m;
+                a[k] ^= t << j;
+                a[k | j] ^= t;
+            }
+        }
+    }
+
+    // a testbench with the same signals and length as the circuit's own
+    // stimulus, but random values
+    public static List<Trace> randomTestbench(Circuit circuit, Random rnd) {
+        List<Trace> testbench = new ArrayList<Trace>();
+        for (Trace trace : circuit.siminputs) {
+            Trace random = new Trace(trace.signal, circuit.simlength);
+            for (int w = 0; w < random.words.length; w++)
+                random.setWord(w, rnd.nextLong());
+            testbench.add(random);
+        }
+        return testbench;
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/* The Levelizer builds the dependency graph of the updates of a
+   circuit: update u depends on update w if the expression of u reads
+   the signal written by w. Inputs and latch outputs are not updates,
+   so they start the graph. Every update gets a level, 0 if it only
+   reads inputs and latch outputs and otherwise one more than the
+   highest level it reads. The updates of one level do not depend on
+   each other, so any engine may evaluate them in any order (or at the
+   same time) once the levels before are done.
+
+   If the graph has a cycle, the circuit has a combinational loop and
+   cannot be simulated; the signals on each loop are reported. */
+
+class Levelizer {
+    private List<Update> updates;
+    private int[][] deps;     // for every update, the updates it reads
+    private int[][] fanout;   // for every update, the updates that read it
+
+    Levelizer(List<Update> updates) {
+        this.updates = updates;
+        int n = updates.size();
+
+        HashMap<String, Integer> index = new HashMap<String, Integer>();
+        for (int i = 0; i < n; i++)
+            index.putIfAbsent(updates.get(i).name, i);
+
+        deps = new int[n][];
+        int[] fanoutcount = new int[n];
+        for (int i = 0; i < n; i++) {
+            List<String> names = new ArrayList<String>();
+            updates.get(i).e.signals(names);
+            List<Integer> reads = new ArrayList<Integer>();
+            for (String name : names) {
+                Integer j = index.get(name);
+                if (j != null && !reads.contains(j))
+                    reads.add(j);
+            }
+            deps[i] = new int[reads.size()];
+            for (int k = 0; k < deps[i].length; k++) {
+                deps[i][k] = reads.get(k);
+                fanoutcount[deps[i][k]]++;
+            }
+        }
+
+        fanout = new int[n][];
+        for (int i = 0; i < n; i++)
+            fanout[i] = new int[fanoutcount[i]];
+        int[] filled = new int[n];
+        for (int i = 0; i < n; i++)
+            for (int j : deps[i])
+                fanout[j][filled[j]++] = i;
+    }
+
+    // the updates grouped by level, in source order within each level
+    public List<List<Update>> levels() {
+        int n = updates.size();
+        int[] level = new int[n];
+        int[] pending = new int[n];
+        ArrayDeque<Integer> ready = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++) {
+            pending[i] = deps[i].length;
+            if (pending[i] == 0)
+                ready.add(i);
+        }
+
+        int done = 0;
+        int maxlevel = -1;
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            done++;
+            maxlevel = Math.max(maxlevel, level[i]);
+            for (int j : fanout[i]) {
+                level[j] = Math.max(level[j], level[i] + 1);
+                if (--pending[j] == 0)
+                    ready.add(j);
+            }
+        }
+        if (done < n)
+            reportLoops(pending);
+
+        List<List<Update>> levels = new ArrayList<List<Update>>();
+        for (int l = 0; l <= maxlevel; l++)
+            levels.add(new ArrayList<Update>());
+        for (int i = 0; i < n; i++)
+            levels.get(level[i]).add(updates.get(i));
+        return levels;
+    }
+
+    /* The updates that still have pending dependencies are on a loop or
+       after one. Trimming the updates that no other remaining update
+       reads leaves only updates that read, and are read by, another
+       remaining update; following the dependencies from any of them
+       must then run into a loop. */
+    private void reportLoops(int[] pending) {
+        int n = updates.size();
+        boolean[] remaining = new boolean[n];
+        int[] readers = new int[n];
+        for (int i = 0; i < n; i++)
+            remaining[i] = pending[i] > 0;
+        for (int i = 0; i < n; i++)
+            if (remaining[i])
+                for (int j : deps[i])
+                    readers[j]++;
+
+        ArrayDeque<Integer> unread = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++)
+            if (remaining[i] && readers[i] == 0)
+                unread.add(i);
+        while (!unread.isEmpty()) {
+            int i = unread.poll();
+            remaining[i] = false;
+            for (int j : deps[i])
+                if (remaining[j] && --readers[j] == 0)
+                    unread.add(j);
+        }
+
+        List<String> loops = new ArrayList<String>();
+        int[] walk = new int[n]; // which walk visited the update, 0 if none
+        for (int start = 0; start < n; start++) {
+            if (!remaining[start] || walk[start] != 0)
+                continue;
+            List<Integer> path = new ArrayList<Integer>();
+            int i = start;
+            while (walk[i] == 0) {
+                walk[i] = start + 1;
+                path.add(i);
+                i = firstRemaining(deps[i], remaining);
+            }
+            if (walk[i] == start + 1) {
+                // the walk went round, the loop is the path from i
+                String loop = "";
+                for (int k = path.indexOf(i); k < path.size(); k++)
+                    loop += updates.get(path.get(k)).name + " <- ";
+                loops.add("Combinational loop: " + loop + updates.get(i).name);
+            }
+        }
+        throw new SimulationError(loops);
+    }
+
+    private static int firstRemaining(int[] deps, boolean[] remaining) {
+        for (int j : deps)
+            if (remaining[j])
+                return j;
+        return -1; // cannot happen after the trimming
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* A version of Circuit.simulate that evaluates the updates of a cycle
+   on several cores. The updates of one level (see Levelizer) do not
+   read each other, so a level is split into ranges that the workers of
+   a ForkJoinPool evaluate at the same time, stealing halves of each
+   other's ranges when they run out. The next level only starts when
+   the whole level is done, and the latches of the next cycle only move
+   when the last level is done, so every update reads the same values
+   as in the interpreter.
+
+   The updates write distinct slots of one Environment, so they need no
+   locking; forking and joining make the values of a level visible to
+   the next. A level too small to be worth splitting is evaluated by
+   the calling thread, so a narrow circuit runs as fast as without
+   the pool. A smaller grain than GRAIN (-grain) sends small levels
+   to the pool as well, so that make test checks the pool on small
+   circuits. */
+
+class ParallelSimulator {
+    static final int GRAIN = 512; // the updates a worker evaluates in one go
+
+    Circuit circuit;
+    Environment env = new Environment();
+    private int threads;
+    private int grain;          // the updates a worker evaluates in one go
+    private Update[] updates;
+    private int[] levelstart;   // level l is updates[levelstart[l]..levelstart[l+1]-1]
+    private int parallel = 0;   // the levels evaluated by the pool
+
+    // evaluates updates[from..to-1], halving the range until it is small;
+    // it is never serialized
+    @SuppressWarnings("serial")
+    private class Evaluate extends RecursiveAction {
+        private int from, to;
+
+        Evaluate(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int u = from; u < to; u++)
+                    updates[u].eval(env);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Evaluate(from, mid), new Evaluate(mid, to));
+            }
+        }
+    }
+
+    ParallelSimulator(Circuit circuit, int threads) {
+        this(circuit, threads, GRAIN);
+    }
+
+    ParallelSimulator(Circuit circuit, int threads, int grain) {
+        this.circuit = circuit;
+        this.grain = Math.max(1, grain);
+        circuit.resolve(env);
+        circuit.typecheck(env);
+        this.threads = Math.max(1, threads);
+
+        // resolve left the updates in level order
+        updates = circuit.updates.toArray(new Update[0]);
+        levelstart = new int[circuit.levels.size() + 1];
+        for (int l = 0; l < circuit.levels.size(); l++)
+            levelstart[l + 1] = levelstart[l] + circuit.levels.get(l).size();
+    }
+
+    // runs the whole simulation, leaving the result in circuit.simoutputs;
+    // the pool only lives as long as the run
+    public void simulate() {
+        List<Trace> outputs = circuit.outputTraces(env);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (int i = 0; i < circuit.simlength; i++) {
+                circuit.inputs(env, i);
+                circuit.latch(env, i);
+
+                for (int l = 0; l + 1 < levelstart.length; l++) {
+                    int from = levelstart[l], to = levelstart[l + 1];
+                    if (to - from < 2 * grain) {
+                        for (int u = from; u < to; u++)
+                            updates[u].eval(env);
+                    } else {
+                        pool.invoke(new Evaluate(from, to));
+                        parallel++;
+                    }
+                }
+
+                for (Trace trace : outputs)
+                    trace.set(i, env.get(trace.slot));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        circuit.simoutputs = outputs;
+    }
+
+    // the number of levels, and how many times the pool evaluated one
+    public int levels() {
+        return levelstart.length - 1;
+    }
+
+    public int parallelLevels() {
+        return parallel;
+    }
+
+    public int threads() {
+        return threads;
+    }
+}
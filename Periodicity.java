@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/* A version of Circuit.simulate for long runs with a periodic
+   stimulus. Once the inputs repeat with some period, and the latches
+   come back to a state they had at the same point (phase) of that
+   period, everything after is a repetition: the traces of the outputs
+   are filled in from the cycles before, without evaluating them.
+
+   The period of the inputs is found first, from the end of the
+   stimulus backwards, comparing 64 cycles at a time: start is the
+   first cycle from which on the inputs repeat with period, and the
+   smallest start + period wins. Only a period that repeats at least
+   twice before the end counts, as any stimulus repeats once in its
+   last few cycles. The search stops once it has compared a word of
+   every input as many times as the stimulus has cycles, which is
+   about what setting the inputs of every cycle costs, so it cannot
+   take longer than the simulation it is meant to save.
+
+   From start on, the simulation keeps the latch state of every cycle
+   in a table by (state, phase), so a repeat is one lookup. If the
+   circuit only settles after very many cycles, the table is started
+   again every MAXSTATES cycles so it does not take all memory; a
+   later repeat is still found. */
+
+class Periodicity {
+    static final int MAXPERIOD = 1 << 16;   // the periods of the inputs tried
+    static final int MAXSTATES = 1 << 20;
+
+    Circuit circuit;
+    Environment env = new Environment();
+    int start, period;     // the inputs repeat with period from start on
+    int found = -1;        // the cycle the repeat was found in, or -1
+    int repeat;            // and the period of the whole circuit
+
+    // a latch state at a phase of the inputs
+    private static class State {
+        long[] latches;
+        int phase;
+
+        State(long[] latches, int phase) {
+            this.latches = latches;
+            this.phase = phase;
+        }
+
+        public boolean equals(Object o) {
+            State s = (State) o;
+            return phase == s.phase && Arrays.equals(latches, s.latches);
+        }
+
+        public int hashCode() {
+            return 31 * Arrays.hashCode(latches) + phase;
+        }
+    }
+
+    Periodicity(Circuit circuit) {
+        this.circuit = circuit;
+        circuit.resolve(env);
+        circuit.typecheck(env);
+
+        int n = circuit.simlength;
+        int best = n;
+        long words = n;         // the words the search may still compare
+        period = 0;
+        for (int p = 1; 3 * p <= n && p <= MAXPERIOD && p < best && words > 0; p++) {
+            int from = periodicFrom(circuit.siminputs, n, p);
+            words -= (n - from) / 64 + 1;
+            if (from < best && n - from >= 2 * p) {
+                best = from;
+                period = p;
+            }
+        }
+        start = period == 0 ? n : best - period;
+    }
+
+    /* The first cycle from which on every input equals itself period
+       cycles before, scanning back from the end a word at a time. */
+    private static int periodicFrom(List<Trace> inputs, int n, int period) {
+        int i = n;
+        while (i - 64 >= period) {
+            long diff = 0;
+            for (Trace trace : inputs)
+                diff |= trace.bits(i - 64) ^ trace.bits(i - 64 - period);
+            if (diff != 0)
+                return i - Long.numberOfLeadingZeros(diff);
+            i -= 64;
+        }
+        for (; i > period; i--)
+            for (Trace trace : inputs)
+                if (trace.get(i - 1) != trace.get(i - 1 - period))
+                    return i;
+        return i;
+    }
+
+    // runs the whole simulation, leaving the result in simoutputs
+    public void simulate() {
+        int n = circuit.simlength;
+        List<Latch> latches = circuit.latches;
+        List<Trace> outputs = circuit.outputTraces(env);
+        HashMap<State, Integer> seen = new HashMap<State, Integer>();
+
+        int i = 0;
+        for (; i < n; i++) {
+            circuit.step(env, i);
+            for (Trace trace : outputs)
+                trace.set(i, env.get(trace.slot));
+            if (i < start)
+                continue;
+
+            long[] bits = new long[(latches.size() + 63) >>> 6];
+            for (int k = 0; k < latches.size(); k++)
+                if (env.get(latches.get(k).outputslot))
+                    bits[k >>> 6] |= 1L << k;
+            State state = new State(bits, (i - start) % period);
+            Integer before = seen.putIfAbsent(state, i);
+            if (before != null) {
+                found = i;
+                repeat = i - before;
+                break;
+            }
+            if (seen.size() >= MAXSTATES)
+                seen.clear();
+        }
+
+        if (found >= 0)
+            for (Trace trace : outputs)
+                trace.repeat(found + 1, repeat);
+        circuit.simoutputs = outputs;
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/* Where the time of a simulation goes, for the -profile option: the
+   wall time of every phase (reading the stimulus, parsing, building
+   the AST, type checking, simulating, printing), and, when the
+   reference interpreter runs, for every update how often it was
+   evaluated, how many expression nodes that visited and how often its
+   value toggled, and how often every input and latch toggled.
+
+   The counting watches Circuit.step (see StepWatch): the updates are
+   evaluated through eval here, which counts the nodes, and the
+   toggles are the slots that differ from the cycle before. The other
+   engines are not touched and cost nothing extra when there is no
+   profile; all that is left of it then is a null check per phase in
+   main.
+
+   The report is one JSON object per simulated file, one per line:
+
+     {"file":"...","cycles":N,"phases":{"parse":ms,...},
+      "updates":[{"name":"s0","evaluations":N,"visits":N,"toggles":N},...],
+      "inputs":[{"name":"Read","toggles":N},...],
+      "latches":[{"name":"la0","toggles":N},...]}
+*/
+
+class Profile implements StepWatch {
+    String filename;
+    private Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private long last = System.nanoTime();
+
+    private Circuit circuit;     // the counters below are for this circuit
+    private long[] evaluations;  // by update
+    private long[] visits;       // by update
+    private long[] toggles;      // by slot
+    private long visited;
+
+    Profile(String filename) {
+        this.filename = filename;
+    }
+
+    // adds the time since the end of the last phase to this one
+    public void phase(String name) {
+        long now = System.nanoTime();
+        Long time = phases.get(name);
+        phases.put(name, (time == null ? 0 : time) + now - last);
+        last = now;
+    }
+
+    /* Circuit.simulate with counters, leaving the result in
+       p.simoutputs like it. */
+    public void simulate(Circuit p) {
+        Environment env = new Environment();
+        p.resolve(env);
+        p.typecheck(env);
+        phase("typecheck");
+
+        circuit = p;
+        evaluations = new long[p.updates.size()];
+        visits = new long[p.updates.size()];
+        toggles = new long[env.size()];
+        boolean[] last = new boolean[env.size()];
+        p.simoutputs.addAll(p.outputTraces(env));
+
+        for (int i = 0; i < p.simlength; i++) {
+            p.step(env, i, this);
+            for (int slot = 0; slot < last.length; slot++) {
+                boolean value = env.get(slot);
+                if (i > 0 && value != last[slot])
+                    toggles[slot]++;
+                last[slot] = value;
+            }
+            for (Trace trace : p.simoutputs)
+                trace.set(i, env.get(trace.slot));
+        }
+        phase("simulate");
+    }
+
+    // Update.eval, counting
+    public void eval(int u, Update update, Environment env) {
+        long before = visited;
+        env.set(update.slot, eval(update.e, env));
+        evaluations[u]++;
+        visits[u] += visited - before;
+    }
+
+    // Expr.eval, counting the nodes it visits
+    private boolean eval(Expr e, Environment env) {
+        visited++;
+        if (e instanceof Signal)
+            return env.get(((Signal) e).slot);
+        if (e instanceof Conjunction)
+            return eval(((Conjunction) e).e1, env) && eval(((Conjunction) e).e2, env);
+        if (e instanceof Disjunction)
+            return eval(((Disjunction) e).e1, env) || eval(((Disjunction) e).e2, env);
+        if (e instanceof Negation)
+            return !eval(((Negation) e).e, env);
+        if (e instanceof ExclusiveOr)
+            return eval(((ExclusiveOr) e).e1, env) ^ eval(((ExclusiveOr) e).e2, env);
+        return e.eval(env);
+    }
+
+    // appends the report to file, which several threads of a batch can share
+    public void write(Path file) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"file\":").append(quote(filename));
+        if (circuit != null)
+            json.append(",\"cycles\":").append(circuit.simlength);
+        json.append(",\"phases\":{");
+        String sep = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            json.append(sep).append(quote(phase.getKey())).append(':');
+            json.append(String.format(Locale.ROOT, "%.3f", phase.getValue() / 1e6));
+            sep = ",";
+        }
+        json.append('}');
+
+        if (circuit != null) {
+            json.append(",\"updates\":[");
+            for (int u = 0; u < evaluations.length; u++) {
+                Update update = circuit.updates.get(u);
+                json.append(u == 0 ? "" : ",").append("{\"name\":").append(quote(update.name));
+                json.append(",\"evaluations\":").append(evaluations[u]);
+                json.append(",\"visits\":").append(visits[u]);
+                json.append(",\"toggles\":").append(toggles[update.slot]).append('}');
+            }
+            json.append("],\"inputs\":[");
+            sep = "";
+            for (Trace trace : circuit.siminputs) {
+                json.append(sep).append("{\"name\":").append(quote(trace.signal));
+                json.append(",\"toggles\":").append(toggles[trace.slot]).append('}');
+                sep = ",";
+            }
+            json.append("],\"latches\":[");
+            sep = "";
+            for (Latch latch : circuit.latches) {
+                json.append(sep).append("{\"name\":").append(quote(latch.outputname));
+                json.append(",\"toggles\":").append(toggles[latch.outputslot]).append('}');
+                sep = ",";
+            }
+            json.append(']');
+        }
+        json.append("}\n");
+
+        synchronized (Profile.class) {
+            Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/* A simulator that stays running and takes jobs, so a job does not
+   pay for starting a JVM and for running the parser and the simulator
+   cold. The circuits are kept in memory (see CircuitCache.resident),
+   so a design that comes again is not parsed again either.
+
+   A job is one line with the options and the .hw file, as on the
+   command line. With - as the file, the text of the .hw file follows
+   on the next lines, up to a line with just .end on it. The reply is
+   what the command line would print on stdout, then every line it
+   would print on stderr behind //, then a line with .ok, or with
+   .error and the message if the job failed:
+
+     -jit 03-trafiklys.hw
+     001001111001 Button
+     ...
+     .ok
+
+   The jobs can come from stdin (replying on stdout), from TCP
+   connections to a port on localhost, or from connections to a Unix
+   socket. The server runs one job at a time: the options of a job are
+   the static fields of main, so a job waits for the one before it to
+   finish, whichever connection it came on. Several connections save
+   only the cost of opening one; they do not make the jobs faster. A
+   job is read in full, text and all, before it waits its turn, and its
+   reply is only sent after, so a client that is slow to send or to
+   read holds up no one else. A connection that sends nothing for
+   TIMEOUT is closed.
+
+   The Unix socket is made anew, removing one that a server before has
+   left behind; any other file of that name is left alone. */
+
+class Server {
+    private static final int CIRCUITS = 256; // the number kept in memory
+    private static final int TIMEOUT = 300000; // ms a connection may wait to send
+
+    // closes the Unix socket connections that time out
+    private static ScheduledExecutorService timer;
+
+    static void serve(String where) throws IOException {
+        CircuitCache.resident = Collections.synchronizedMap(new LinkedHashMap<String, CircuitCache>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, CircuitCache> eldest) {
+                    return size() > CIRCUITS;
+                }
+            });
+
+        if (where.equals("-")) {
+            session(System.in, System.out);
+        } else if (where.matches("[0-9]+")) {
+            try (ServerSocket server = new ServerSocket(Integer.parseInt(where), 50, InetAddress.getLoopbackAddress())) {
+                System.err.println("Listening on localhost:" + server.getLocalPort());
+                while (true) {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(TIMEOUT);
+                    start(socket.getInputStream(), socket.getOutputStream(), socket);
+                }
+            }
+        } else {
+            Path path = Paths.get(where);
+            removeStale(path);
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                server.bind(UnixDomainSocketAddress.of(path));
+                System.err.println("Listening on " + path);
+                while (true) {
+                    SocketChannel channel = server.accept();
+                    start(timed(Channels.newInputStream(channel), channel), Channels.newOutputStream(channel), channel);
+                }
+            }
+        }
+    }
+
+    // removes a Unix socket no server listens on any more, and refuses
+    // to take the place of anything else
+    private static void removeStale(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return;
+        int mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+        if ((mode & 0170000) != 0140000)
+            throw new SimulationError(path + " is not a socket, so it is left alone");
+        boolean listening;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+            listening = true;
+        } catch (IOException e) {
+            listening = false;
+        }
+        if (listening)
+            throw new SimulationError("A server is listening on " + path + " already");
+        Files.delete(path);
+    }
+
+    /* A channel has no read timeout as a Socket has, so every read of in
+       closes the connection if it waits for more than TIMEOUT. */
+    private static InputStream timed(InputStream in, AutoCloseable connection) {
+        return new FilterInputStream(in) {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                ScheduledFuture<?> close = timer.schedule(() -> {
+                        connection.close();
+                        return null;
+                    }, TIMEOUT, TimeUnit.MILLISECONDS);
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    close.cancel(false);
+                }
+            }
+        };
+    }
+
+    // a thread for the jobs of a connection, which closes it at the end
+    private static void start(InputStream in, OutputStream out, AutoCloseable connection) {
+        Thread thread = new Thread(() -> {
+                try (connection) {
+                    session(in, out);
+                } catch (Exception e) {
+                    System.err.println("Connection failed: " + e);
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // runs the jobs from in until it ends
+    static void session(InputStream input, OutputStream output) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            String[] args = line.trim().split("\\s+");
+
+            // the text after the job line belongs to it, even if it fails
+            byte[] text = null;
+            if (Arrays.asList(args).contains("-")) {
+                StringBuilder lines = new StringBuilder();
+                while ((line = in.readLine()) != null && !line.equals(".end"))
+                    lines.append(line).append('\n');
+                text = lines.toString().getBytes(StandardCharsets.UTF_8);
+            }
+
+            StringWriter reply = new StringWriter();
+            StringWriter err = new StringWriter();
+            String error = null;
+            synchronized (Server.class) { // one job at a time, see above
+                try {
+                    job(args, text, new PrintWriter(reply), new PrintWriter(err));
+                } catch (SimulationError e) {
+                    error = e.getMessage();
+                } catch (Exception e) {
+                    error = e.toString();
+                }
+            }
+            out.print(reply);
+            for (String report : err.toString().split("\n"))
+                if (!report.isEmpty())
+                    out.println("// " + report);
+            out.println(error == null ? ".ok" : ".error " + error.replace('\n', ' '));
+            out.flush();
+        }
+    }
+
+    // the job of args, with text as the .hw file if that is -
+    private static void job(String[] args, byte[] text, PrintWriter out, PrintWriter err) throws IOException {
+        main.reset();
+        List<String> files = new ArrayList<String>();
+        String unknown = null;
+        for (int i = 0; i < args.length; i++) {
+            int last = main.option(args, i);
+            if (last >= 0)
+                i = last;
+            else if (args[i].equals("-") || !args[i].startsWith("-"))
+                files.add(args[i]);
+            else if (unknown == null)
+                unknown = args[i];
+        }
+
+        if (unknown != null)
+            throw new SimulationError("Unknown option " + unknown);
+        if (files.size() != 1)
+            throw new SimulationError("A job is one .hw file");
+
+        String filename = files.get(0);
+        byte[] bytes = filename.equals("-") ? text : Files.readAllBytes(Paths.get(filename));
+        if (main.profile != null)
+            Files.deleteIfExists(Paths.get(main.profile));
+        main.simulate(filename, bytes, out, err, main.profile == null ? null : new Profile(filename));
+        out.flush();
+        err.flush();
+    }
+}
@@ -0,0 +1,146 @@
+/* The Simplifier rewrites an expression into an equivalent one with
+   fewer nodes, bottom up, so every node is simplified after its
+   children:
+
+     constants      true && x = x, false && x = false, !true = false, ...
+     !!x            = x
+     idempotence    x && x = x,  x || x = x
+     complement     x && !x = false,  x || !x = true
+     absorption     x && (x || y) = x,  x || (x && y) = x
+     exclusive or   x && !y || !x && y = x ^ y
+
+   Two expressions are only recognized as equal when they have the
+   same structure (see same), which is enough for the patterns
+   written in practice. */
+
+class Simplifier {
+
+    public static Expr simplify(Expr e) {
+        if (e instanceof Negation) {
+            Expr x = simplify(((Negation) e).e);
+            if (x instanceof Constant)
+                return new Constant(!((Constant) x).value);
+            if (x instanceof Negation)
+                return ((Negation) x).e;
+            return x == ((Negation) e).e ? e : new Negation(x);
+        } else if (e instanceof Conjunction) {
+            Conjunction c = (Conjunction) e;
+            Expr a = simplify(c.e1);
+            Expr b = simplify(c.e2);
+            if (a instanceof Constant)
+                return ((Constant) a).value ? b : a;
+            if (b instanceof Constant)
+                return ((Constant) b).value ? a : b;
+            if (same(a, b))
+                return a;
+            if (complement(a, b))
+                return new Constant(false);
+            if (b instanceof Disjunction && contains((Disjunction) b, a))
+                return a;
+            if (a instanceof Disjunction && contains((Disjunction) a, b))
+                return b;
+            return a == c.e1 && b == c.e2 ? e : new Conjunction(a, b);
+        } else if (e instanceof Disjunction) {
+            Disjunction d = (Disjunction) e;
+            Expr a = simplify(d.e1);
+            Expr b = simplify(d.e2);
+            if (a instanceof Constant)
+                return ((Constant) a).value ? a : b;
+            if (b instanceof Constant)
+                return ((Constant) b).value ? b : a;
+            if (same(a, b))
+                return a;
+            if (complement(a, b))
+                return new Constant(true);
+            if (b instanceof Conjunction && contains((Conjunction) b, a))
+                return a;
+            if (a instanceof Conjunction && contains((Conjunction) a, b))
+                return b;
+            if (a instanceof Conjunction && b instanceof Conjunction) {
+                Expr x = exclusiveOr((Conjunction) a, (Conjunction) b);
+                if (x != null)
+                    return x;
+            }
+            return a == d.e1 && b == d.e2 ? e : new Disjunction(a, b);
+        } else if (e instanceof ExclusiveOr) {
+            ExclusiveOr x = (ExclusiveOr) e;
+            Expr a = simplify(x.e1);
+            Expr b = simplify(x.e2);
+            if (a instanceof Constant)
+                return ((Constant) a).value ? simplify(new Negation(b)) : b;
+            if (b instanceof Constant)
+                return ((Constant) b).value ? simplify(new Negation(a)) : a;
+            if (same(a, b))
+                return new Constant(false);
+            if (complement(a, b))
+                return new Constant(true);
+            return a == x.e1 && b == x.e2 ? e : new ExclusiveOr(a, b);
+        }
+        return e;
+    }
+
+    // the number of nodes of the expression tree
+    public static int size(Expr e) {
+        if (e instanceof Negation)
+            return 1 + size(((Negation) e).e);
+        if (e instanceof Conjunction)
+            return 1 + size(((Conjunction) e).e1) + size(((Conjunction) e).e2);
+        if (e instanceof Disjunction)
+            return 1 + size(((Disjunction) e).e1) + size(((Disjunction) e).e2);
+        if (e instanceof ExclusiveOr)
+            return 1 + size(((ExclusiveOr) e).e1) + size(((ExclusiveOr) e).e2);
+        return 1;
+    }
+
+    // structural equality
+    public static boolean same(Expr a, Expr b) {
+        if (a == b)
+            return true;
+        if (a instanceof Signal && b instanceof Signal)
+            return ((Signal) a).varname.equals(((Signal) b).varname);
+        if (a instanceof Constant && b instanceof Constant)
+            return ((Constant) a).value == ((Constant) b).value;
+        if (a instanceof Negation && b instanceof Negation)
+            return same(((Negation) a).e, ((Negation) b).e);
+        if (a instanceof Conjunction && b instanceof Conjunction)
+            return same(((Conjunction) a).e1, ((Conjunction) b).e1)
+                && same(((Conjunction) a).e2, ((Conjunction) b).e2);
+        if (a instanceof Disjunction && b instanceof Disjunction)
+            return same(((Disjunction) a).e1, ((Disjunction) b).e1)
+                && same(((Disjunction) a).e2, ((Disjunction) b).e2);
+        if (a instanceof ExclusiveOr && b instanceof ExclusiveOr)
+            return same(((ExclusiveOr) a).e1, ((ExclusiveOr) b).e1)
+                && same(((ExclusiveOr) a).e2, ((ExclusiveOr) b).e2);
+        return false;
+    }
+
+    // is a = !b or b = !a
+    private static boolean complement(Expr a, Expr b) {
+        return (a instanceof Negation && same(((Negation) a).e, b))
+            || (b instanceof Negation && same(((Negation) b).e, a));
+    }
+
+    private static boolean contains(Disjunction d, Expr x) {
+        return same(d.e1, x) || same(d.e2, x);
+    }
+
+    private static boolean contains(Conjunction c, Expr x) {
+        return same(c.e1, x) || same(c.e2, x);
+    }
+
+    // x ^ y if a || b is x && !y || !x && y, in any order of the operands
+    private static Expr exclusiveOr(Conjunction a, Conjunction b) {
+        Expr[][] left = {{a.e1, a.e2}, {a.e2, a.e1}};
+        Expr[][] right = {{b.e1, b.e2}, {b.e2, b.e1}};
+        for (Expr[] l : left) {
+            for (Expr[] r : right) {
+                // l is x, !y and r is !x, y
+                if (l[1] instanceof Negation && r[0] instanceof Negation
+                    && same(((Negation) l[1]).e, r[1])
+                    && same(((Negation) r[0]).e, l[0]))
+                    return new ExclusiveOr(l[0], r[1]);
+            }
+        }
+        return null;
+    }
+}
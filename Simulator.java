@@ -0,0 +1,221 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/* The simulator as a library, for programs that run many simulations
+   in one JVM. Nothing here prints or exits: what goes wrong, from a
+   syntax error to an undefined signal, comes back as diagnostics, and
+   the result of a run is the traces of the outputs.
+
+     Simulator sim = Simulator.parse(text);
+     Simulator.Result r = sim.simulate(stimulus);
+     if (r.ok()) ... r.outputs ...
+     else ... r.diagnostics ...
+
+   The circuit is resolved, type checked and (optionally) compiled once,
+   when the Simulator is made; after that simulate only reads it, and
+   every call gets its own values, so a Simulator can be called any
+   number of times, from any number of threads at once. The circuit
+   belongs to the Simulator from then on, as resolving it gives its
+   signals the slots of the Simulator.
+
+   The stimulus is a trace for every input declared in .inputs, all of
+   the same length; the .simulate section of the text is only the
+   stimulus of simulate(). */
+
+class Simulator {
+    // the outcome of a run: the traces, or why there are none
+    static class Result {
+        final List<Trace> inputs;
+        final List<Trace> outputs;
+        final List<String> diagnostics;
+
+        Result(List<Trace> inputs, List<Trace> outputs, List<String> diagnostics) {
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.diagnostics = diagnostics;
+        }
+
+        public boolean ok() {
+            return diagnostics.isEmpty();
+        }
+
+        // the output trace of the signal, or null
+        public Trace output(String signal) {
+            for (Trace trace : outputs)
+                if (trace.signal.equals(signal))
+                    return trace;
+            return null;
+        }
+    }
+
+    private Circuit circuit;
+    private List<Trace> stimulus;    // that of the .simulate section
+    private Environment env;         // the slots, copied by every run
+    private CompiledStep code;       // null for the interpreter
+    private Map<String, Integer> inputs = new HashMap<String, Integer>(); // slot by name
+    private int[] outputslots;
+    private List<String> diagnostics = new ArrayList<String>();
+
+    // a simulator of p with the reference interpreter
+    Simulator(Circuit p) {
+        this(p, false);
+    }
+
+    // a simulator of p, compiled to bytecode if compiled is set
+    Simulator(Circuit p, boolean compiled) {
+        if (p == null)
+            return; // parse has put the diagnostics in
+        stimulus = p.siminputs;
+        // the inputs of a run are the declared ones, whatever the
+        // .simulate section has
+        List<Trace> declared = new ArrayList<Trace>();
+        for (String input : p.inputs)
+            declared.add(new Trace(input, 0));
+        circuit = new Circuit(p.name, p.inputs, p.outputs, p.latches, p.updates,
+                              p.inputs.isEmpty() ? p.siminputs : declared);
+        try {
+            Environment env = new Environment();
+            circuit.resolve(env);
+            circuit.typecheck(env);
+            for (Trace trace : circuit.siminputs)
+                inputs.put(trace.signal, trace.slot);
+            outputslots = new int[circuit.outputs.size()];
+            for (int k = 0; k < outputslots.length; k++)
+                outputslots[k] = env.slotOf(circuit.outputs.get(k));
+            if (compiled)
+                code = CircuitCompiler.compile(circuit);
+            this.env = env;
+        } catch (SimulationError e) {
+            diagnostics.addAll(e.errors);
+        }
+    }
+
+    /* Parses the text of a .hw file. A text that does not parse gives a
+       Simulator whose runs only return the syntax errors. It always
+       builds a parse tree, whatever the options of main say, so it can
+       run beside the Server and other callers. */
+    static Simulator parse(String text) {
+        return parse(text, false);
+    }
+
+    static Simulator parse(String text, boolean compiled) {
+        List<String> errors = new ArrayList<String>();
+        BaseErrorListener listener = new BaseErrorListener() {
+                public void syntaxError(Recognizer<?, ?> recognizer, Object symbol, int line, int column,
+                                        String msg, RecognitionException e) {
+                    errors.add("line " + line + ":" + column + " " + msg);
+                }
+            };
+        Circuit p = null;
+        try {
+            p = main.parse("<text>", text.getBytes(StandardCharsets.UTF_8), null, listener, true);
+        } catch (SimulationError e) {
+            errors.addAll(e.errors);
+        } catch (RuntimeException e) {
+            // a tree with syntax errors can fail to make an AST; the
+            // syntax errors say why
+            if (errors.isEmpty())
+                errors.add(e.toString());
+        }
+        if (!errors.isEmpty())
+            p = null;
+        Simulator sim = new Simulator(p, compiled);
+        sim.diagnostics.addAll(errors);
+        return sim;
+    }
+
+    public Circuit circuit() {
+        return circuit;
+    }
+
+    // what is wrong with the circuit; if anything is, no run succeeds
+    public List<String> diagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    // the run with the stimulus of the .simulate section
+    public Result simulate() {
+        return simulate(stimulus == null ? new ArrayList<Trace>() : stimulus);
+    }
+
+    public Result simulate(List<Trace> stimulus) {
+        if (!diagnostics.isEmpty())
+            return failed(stimulus, diagnostics);
+
+        // a slot for every trace, and every input exactly once
+        List<String> problems = new ArrayList<String>();
+        int[] slots = new int[stimulus.size()];
+        boolean[] given = new boolean[env.size()];
+        int length = stimulus.isEmpty() ? 0 : stimulus.get(0).length;
+        for (int k = 0; k < slots.length; k++) {
+            Trace trace = stimulus.get(k);
+            Integer slot = inputs.get(trace.signal);
+            if (slot == null) {
+                problems.add("Not an input of " + circuit.name + ": " + trace.signal);
+                continue;
+            }
+            if (given[slot])
+                problems.add("Input given twice: " + trace.signal);
+            if (trace.length != length)
+                problems.add("Input " + trace.signal + " has " + trace.length + " cycles, not " + length);
+            given[slot] = true;
+            slots[k] = slot;
+        }
+        for (Map.Entry<String, Integer> input : inputs.entrySet())
+            if (!given[input.getValue()])
+                problems.add("No stimulus for input " + input.getKey());
+        if (length == 0 && problems.isEmpty())
+            problems.add("Siminput value array length 0.");
+        if (!problems.isEmpty())
+            return failed(stimulus, problems);
+
+        List<Trace> outputs = new ArrayList<Trace>();
+        for (String output : circuit.outputs)
+            outputs.add(new Trace(output, length));
+        if (code != null)
+            compiled(stimulus, slots, length, outputs);
+        else
+            interpret(stimulus, slots, length, outputs);
+        return new Result(stimulus, outputs, Collections.<String>emptyList());
+    }
+
+    private void compiled(List<Trace> stimulus, int[] slots, int length, List<Trace> outputs) {
+        boolean[] v = new boolean[env.size()];
+        for (int i = 0; i < length; i++) {
+            for (int k = 0; k < slots.length; k++)
+                v[slots[k]] = stimulus.get(k).get(i);
+            if (i == 0)
+                code.initial(v);
+            else
+                code.step(v);
+            for (int k = 0; k < outputslots.length; k++)
+                outputs.get(k).set(i, v[outputslots[k]]);
+        }
+    }
+
+    // Circuit.step with the inputs from stimulus, in a copy of env
+    private void interpret(List<Trace> stimulus, int[] slots, int length, List<Trace> outputs) {
+        Environment env = new Environment(this.env);
+        for (int i = 0; i < length; i++) {
+            for (int k = 0; k < slots.length; k++)
+                env.set(slots[k], stimulus.get(k).get(i));
+            circuit.latch(env, i);
+            circuit.evaluate(env, null);
+            for (int k = 0; k < outputslots.length; k++)
+                outputs.get(k).set(i, env.get(outputslots[k]));
+        }
+    }
+
+    private static Result failed(List<Trace> stimulus, List<String> diagnostics) {
+        return new Result(stimulus, Collections.<Trace>emptyList(),
+                          Collections.unmodifiableList(new ArrayList<String>(diagnostics)));
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/* The state of a simulation in a cycle, from which it can be resumed:
+   the cycle, and the values of the latch outputs in it. That is all a
+   run needs to go on, as the updates only depend on the latches and
+   the inputs, and the inputs of any cycle are in the traces of the
+   .simulate section.
+
+   A snapshot file is small and binary:
+
+     int     MAGIC
+     UTF     name of the circuit
+     int     fingerprint of the signal names of the inputs and latches
+     int     cycle
+     int     simlength
+     int     number of latches
+     long[]  latch outputs, 64 to a word, in the order of the latches
+
+   The fingerprint and the lengths keep a snapshot from being resumed
+   with a different circuit or stimulus. */
+
+class Snapshot {
+    static final int MAGIC = 0x48575331; // "HWS1"
+
+    String circuit;
+    int fingerprint;
+    int cycle;
+    int simlength;
+    boolean[] latches;
+
+    Snapshot(String circuit, int fingerprint, int cycle, int simlength, boolean[] latches) {
+        this.circuit = circuit;
+        this.fingerprint = fingerprint;
+        this.cycle = cycle;
+        this.simlength = simlength;
+        this.latches = latches;
+    }
+
+    // the snapshot of cycle i, which has just been simulated in env
+    static Snapshot take(Circuit p, Environment env, int i) {
+        boolean[] state = new boolean[p.latches.size()];
+        for (int k = 0; k < state.length; k++)
+            state[k] = env.get(p.latches.get(k).outputslot);
+        return new Snapshot(p.name, fingerprint(p), i, p.simlength, state);
+    }
+
+    static int fingerprint(Circuit p) {
+        int h = 1;
+        for (Trace trace : p.siminputs)
+            h = 31 * h + trace.signal.hashCode();
+        for (Latch latch : p.latches)
+            h = 31 * h + latch.outputname.hashCode();
+        return h;
+    }
+
+    // the name of the snapshot of cycle i in dir
+    static Path file(Path dir, Circuit p, int i) {
+        return dir.resolve(p.name + "-" + i + ".snap");
+    }
+
+    /* Writes to a temporary file which is then moved in place, so a run
+       that is killed halfway never leaves a broken snapshot. */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeUTF(circuit);
+            out.writeInt(fingerprint);
+            out.writeInt(cycle);
+            out.writeInt(simlength);
+            out.writeInt(latches.length);
+            for (int w = 0; w < (latches.length + 63) >>> 6; w++) {
+                long word = 0;
+                for (int b = 0; b < 64 && 64 * w + b < latches.length; b++)
+                    if (latches[64 * w + b])
+                        word |= 1L << b;
+                out.writeLong(word);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Snapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new SimulationError(file + " is not a snapshot");
+            String circuit = in.readUTF();
+            int fingerprint = in.readInt();
+            int cycle = in.readInt();
+            int simlength = in.readInt();
+            boolean[] latches = new boolean[in.readInt()];
+            for (int w = 0; w < (latches.length + 63) >>> 6; w++) {
+                long word = in.readLong();
+                for (int b = 0; b < 64 && 64 * w + b < latches.length; b++)
+                    latches[64 * w + b] = (word & (1L << b)) != 0;
+            }
+            return new Snapshot(circuit, fingerprint, cycle, simlength, latches);
+        }
+    }
+
+    /* Simulates p with the reference interpreter, from the snapshot
+       from (or cycle 0 if it is null), writing a snapshot to dir every
+       every cycles if every > 0. Returns the first simulated cycle: the
+       traces of p are only filled in from there on. */
+    static int simulate(Circuit p, Snapshot from, int every, Path dir) throws IOException {
+        Environment env = new Environment();
+        p.resolve(env);
+        p.typecheck(env);
+
+        int start = 0;
+        if (from == null) {
+            p.initialize(env);
+        } else {
+            if (!from.circuit.equals(p.name) || from.fingerprint != fingerprint(p)
+                || from.simlength != p.simlength || from.latches.length != p.latches.size())
+                throw new SimulationError("The snapshot is not of circuit " + p.name + " with this stimulus.");
+            start = from.cycle;
+            p.resume(env, start, from.latches);
+        }
+
+        for (int i = start + 1; i < p.simlength; i++) {
+            p.nextCycle(env, i);
+            if (every > 0 && i % every == 0)
+                take(p, env, i).write(file(dir, p, i));
+        }
+        return start;
+    }
+}
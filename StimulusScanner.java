@@ -0,0 +1,159 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/* A scanner for the .simulate section, which for long runs is almost
+   all of a .hw file. Going through hwLexer, every BITSTRING would be
+   copied into a token text, then into a String by getText(), before
+   Trace gets to pack it. This scanner works on the bytes of the file
+   and packs the 0s and 1s straight into the words of the traces.
+
+   main.parse lets ANTLR parse everything up to and including the
+   .simulate keyword (found by find, which skips the comments like
+   the lexer does) and then hands the rest to scan. The syntax is the
+   same as in hw.g4: lines "signal = bits", with whitespace and
+   comments allowed anywhere between the tokens. */
+
+class StimulusScanner {
+    private static final byte[] KEYWORD = ".simulate".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] text;
+    private int pos;
+    private int line = 1;
+    private int linestart = 0;
+
+    StimulusScanner(byte[] text) {
+        this.text = text;
+    }
+
+    // the offset just after the .simulate keyword, or -1 if there is none
+    public int find() {
+        pos = 0;
+        while (pos < text.length) {
+            if (skipComment())
+                continue;
+            if (text[pos] == '.' && matches(KEYWORD))
+                return pos + KEYWORD.length;
+            pos++;
+        }
+        return -1;
+    }
+
+    // the traces from the offset returned by find to the end of the text
+    public List<Trace> scan(int start) {
+        for (pos = 0; pos < start; pos++)
+            newline();
+        List<Trace> traces = new ArrayList<Trace>();
+        skipSpace();
+        while (pos < text.length) {
+            String signal = identifier();
+            skipSpace();
+            expect('=');
+            skipSpace();
+            traces.add(bitstring(signal));
+            skipSpace();
+        }
+        return traces;
+    }
+
+    private String identifier() {
+        int begin = pos;
+        if (pos < text.length && isAlpha(text[pos])) {
+            pos++;
+            while (pos < text.length && (isAlpha(text[pos]) || (text[pos] >= '0' && text[pos] <= '9')))
+                pos++;
+        }
+        if (pos == begin)
+            error("expecting a signal name");
+        return new String(text, begin, pos - begin, StandardCharsets.UTF_8);
+    }
+
+    // the letters of hw.g4, where the bytes of the Danish letters are let
+    // through as any non-ASCII byte
+    private static boolean isAlpha(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b < 0;
+    }
+
+    // packs a run of 0s and 1s, 64 bits to a word
+    private Trace bitstring(String signal) {
+        int begin = pos;
+        while (pos < text.length && (text[pos] == '0' || text[pos] == '1'))
+            pos++;
+        if (pos == begin)
+            error("expecting a bitstring for " + signal);
+        Trace trace = new Trace(signal, pos - begin);
+        long[] words = trace.words;
+        for (int w = 0; w < words.length; w++) {
+            int from = begin + 64 * w;
+            int to = Math.min(from + 64, pos);
+            long word = 0;
+            for (int i = from; i < to; i++)
+                word |= (long) (text[i] & 1) << (i - from);
+            words[w] = word;
+        }
+        return trace;
+    }
+
+    private void expect(char c) {
+        if (pos >= text.length || text[pos] != c)
+            error("expecting '" + c + "'");
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < text.length) {
+            byte b = text[pos];
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                newline();
+                pos++;
+            } else if (!skipComment()) {
+                return;
+            }
+        }
+    }
+
+    // skips a comment starting at pos, if there is one
+    private boolean skipComment() {
+        if (pos + 1 >= text.length || text[pos] != '/')
+            return false;
+        if (text[pos + 1] == '/') {
+            while (pos < text.length && text[pos] != '\n')
+                pos++;
+            return true;
+        }
+        if (text[pos + 1] != '*')
+            return false;
+        // as COMMENT2 in hw.g4: a * not followed by / is taken together
+        // with the character after it
+        int p = pos + 2;
+        while (p + 1 < text.length && !(text[p] == '*' && text[p + 1] == '/')) {
+            p += (text[p] == '*') ? 2 : 1;
+        }
+        if (p + 1 >= text.length)
+            return false; // unterminated, left to the lexer
+        for (; pos < p + 2; pos++)
+            newline();
+        return true;
+    }
+
+    private boolean matches(byte[] word) {
+        if (pos + word.length > text.length)
+            return false;
+        for (int i = 0; i < word.length; i++)
+            if (text[pos + i] != word[i])
+                return false;
+        return true;
+    }
+
+    // keeps track of the line for the error messages
+    private void newline() {
+        if (text[pos] == '\n') {
+            line++;
+            linestart = pos + 1;
+        }
+    }
+
+    private void error(String msg) {
+        throw new SimulationError("line " + line + ":" + (pos - linestart) + " " + msg + " in the .simulate section");
+    }
+}
@@ -0,0 +1,168 @@
+import java.util.List;
+
+/* A version of Circuit.simulate for controller-like circuits with few
+   inputs and latches. Everything a cycle computes is a function of the
+   inputs and the latch outputs of that cycle, so with n of them it is
+   a table of 2^n entries: for every index (the input bits, then the
+   latch bits) the bits of the outputs and the latch bits of the next
+   cycle. Every cycle is then one lookup, whatever the number of
+   updates.
+
+   An entry is computed by evaluating the updates the first time its
+   index comes up, so a short run costs no more than the interpreter
+   and a long one only evaluates each state once.
+
+   The next latch bits are known at the end of a cycle, as long as no
+   latch reads an input (which only gets its value in the next cycle);
+   a latch that reads another latch gets its new value if it comes
+   earlier in .latches and its old one otherwise, as in nextCycle.
+   Other circuits, and those with too many bits, are simulated by the
+   interpreter instead, and reason says why. */
+
+class TruthTable {
+    static final int MAXBITS = 20; // the table then takes 12 MB
+
+    Circuit circuit;
+    Environment env = new Environment();
+    String reason;              // why there is no table, or null
+
+    private int[] inputslots;
+    private int[] latchslots;   // the output slot of every latch
+    private int[] source;       // for every latch, the latch it reads, or -1
+    private int[] outputslots;
+    private int[] next;         // by index, the latch bits of the next cycle
+    private long[] outputs;     // by index, the output bits
+    private boolean[] known;    // by index, whether the entry is computed
+    private int computed = 0;
+
+    TruthTable(Circuit circuit) {
+        this.circuit = circuit;
+        circuit.resolve(env);
+        circuit.typecheck(env);
+
+        List<Latch> latches = circuit.latches;
+        int bits = circuit.siminputs.size() + latches.size();
+        if (bits > MAXBITS) {
+            reason = bits + " inputs and latches, more than " + MAXBITS;
+            return;
+        }
+        if (circuit.outputs.size() > 64) {
+            reason = circuit.outputs.size() + " outputs, more than 64";
+            return;
+        }
+
+        inputslots = new int[circuit.siminputs.size()];
+        for (int j = 0; j < inputslots.length; j++)
+            inputslots[j] = circuit.siminputs.get(j).slot;
+        latchslots = new int[latches.size()];
+        for (int k = 0; k < latchslots.length; k++)
+            latchslots[k] = latches.get(k).outputslot;
+        source = new int[latches.size()];
+        for (int k = 0; k < source.length; k++) {
+            Latch latch = latches.get(k);
+            source[k] = -1;
+            for (int j = 0; j < inputslots.length; j++)
+                if (latch.inputslot == inputslots[j]) {
+                    reason = "latch " + latch.outputname + " reads input " + latch.inputname;
+                    return;
+                }
+            for (int m = 0; m < latchslots.length; m++)
+                if (latch.inputslot == latchslots[m])
+                    source[k] = m;
+        }
+        outputslots = new int[circuit.outputs.size()];
+        for (int o = 0; o < outputslots.length; o++)
+            outputslots[o] = env.slotOf(circuit.outputs.get(o));
+
+        next = new int[1 << bits];
+        outputs = new long[1 << bits];
+        known = new boolean[1 << bits];
+    }
+
+    // the number of entries, and how many of them have been computed
+    public int size() {
+        return known == null ? 0 : known.length;
+    }
+
+    public int computed() {
+        return computed;
+    }
+
+    // evaluates the updates for the entry at index
+    private void compute(int index) {
+        int ni = inputslots.length;
+        for (int j = 0; j < ni; j++)
+            env.set(inputslots[j], (index >>> j & 1) != 0);
+        for (int k = 0; k < latchslots.length; k++)
+            env.set(latchslots[k], (index >>> (ni + k) & 1) != 0);
+        for (Update update : circuit.updates)
+            update.eval(env);
+
+        long out = 0;
+        for (int o = 0; o < outputslots.length; o++)
+            if (env.get(outputslots[o]))
+                out |= 1L << o;
+
+        int state = 0;
+        for (int k = 0; k < latchslots.length; k++) {
+            int m = source[k];
+            boolean value;
+            if (m < 0)
+                value = env.get(circuit.latches.get(k).inputslot);
+            else if (m < k)
+                value = (state >>> m & 1) != 0;
+            else
+                value = (index >>> (ni + m) & 1) != 0;
+            if (value)
+                state |= 1 << k;
+        }
+
+        outputs[index] = out;
+        next[index] = state;
+        known[index] = true;
+        computed++;
+    }
+
+    // runs the whole simulation, leaving the result in simoutputs
+    public void simulate() {
+        if (reason != null) {
+            circuit.initialize(env);
+            for (int i = 1; i < circuit.simlength; i++)
+                circuit.nextCycle(env, i);
+            return;
+        }
+
+        List<Trace> inputs = circuit.siminputs;
+        List<Trace> traces = circuit.outputTraces(env);
+        int ni = inputs.size();
+        int no = outputslots.length;
+        long[] in = new long[ni];
+        long[] out = new long[no];
+        int state = 0; // the latches are false in cycle 0
+        for (int i = 0; i < circuit.simlength; i++) {
+            int bit = i & 63;
+            if (bit == 0)
+                for (int j = 0; j < ni; j++)
+                    in[j] = inputs.get(j).getWord(i >>> 6);
+
+            int index = state << ni;
+            for (int j = 0; j < ni; j++)
+                index |= (int) (in[j] >>> bit & 1) << j;
+            if (!known[index])
+                compute(index);
+
+            long bits = outputs[index];
+            for (int o = 0; o < no; o++)
+                out[o] |= (bits >>> o & 1) << bit;
+            state = next[index];
+
+            if (bit == 63 || i == circuit.simlength - 1) {
+                for (int o = 0; o < no; o++) {
+                    traces.get(o).setWord(i >>> 6, out[o]);
+                    out[o] = 0;
+                }
+            }
+        }
+        circuit.simoutputs = traces;
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Writes the simulation as a VCD (value change dump) file, which
+   waveform viewers such as GTKWave can open. Every signal of the
+   circuit gets a variable, and after the initial values only the
+   changes are written, each cycle as one time step. The values are
+   taken from the environment while the simulation runs, so no output
+   trace is kept: the memory stays the same however long the run is,
+   and the size of the file follows the activity of the circuit.
+
+     $timescale 1ns $end
+     $scope module vonNeumann $end
+     $var wire 1 ! Read $end
+     ...
+     $enddefinitions $end
+     #0
+     $dumpvars
+     1!
+     ...
+     $end
+     #1
+     0!
+*/
+
+class Vcd {
+    private PrintWriter out;
+    private Environment env;
+    private String[] ids;       // by slot
+    private boolean[] last;     // the values written last, by slot
+
+    Vcd(PrintWriter out, Circuit p, Environment env) {
+        this.out = out;
+        this.env = env;
+        ids = new String[env.size()];
+        last = new boolean[env.size()];
+
+        out.println("$version hw simulator $end");
+        out.println("$timescale 1ns $end");
+        out.println("$scope module " + p.name + " $end");
+        for (int slot = 0; slot < ids.length; slot++) {
+            ids[slot] = id(slot);
+            out.println("$var wire 1 " + ids[slot] + " " + env.nameOf(slot) + " $end");
+        }
+        out.println("$upscope $end");
+        out.println("$enddefinitions $end");
+    }
+
+    // the short identifier of a variable, in the printable characters ! to ~
+    private static String id(int n) {
+        StringBuilder id = new StringBuilder();
+        do {
+            id.append((char) ('!' + n % 94));
+            n /= 94;
+        } while (n > 0);
+        return id.toString();
+    }
+
+    // writes the values of cycle i that differ from cycle i-1; a cycle
+    // without changes is left out altogether
+    public void cycle(int i) {
+        if (i == 0) {
+            out.println("#0");
+            out.println("$dumpvars");
+        }
+        boolean changed = i == 0;
+        for (int slot = 0; slot < ids.length; slot++) {
+            boolean value = env.get(slot);
+            if (i == 0 || value != last[slot]) {
+                if (!changed) {
+                    out.println("#" + i);
+                    changed = true;
+                }
+                out.print(value ? '1' : '0');
+                out.println(ids[slot]);
+                last[slot] = value;
+            }
+        }
+        if (i == 0)
+            out.println("$end");
+    }
+
+    // the end of the last cycle
+    public void finish(int length) {
+        out.println("#" + length);
+        out.flush();
+    }
+
+    // simulates p with the reference interpreter, writing the VCD to file
+    static void simulate(Circuit p, Path file) throws IOException {
+        Environment env = new Environment();
+        p.resolve(env);
+        p.typecheck(env);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            Vcd vcd = new Vcd(out, p, env);
+            for (int i = 0; i < p.simlength; i++) {
+                p.step(env, i);
+                vcd.cycle(i);
+            }
+            vcd.finish(p.simlength);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/* Writes synthetic .hw programs, for finding out where the simulator
+   stops scaling. The kinds of circuit are
+
+     adder N       an N-bit ripple-carry accumulator in the style
+                   of 04-von-Neumann.hw
+     counter N     an N-bit binary counter with an enable input
+     shift N       an N-bit shift register
+     random N L    a random DAG of N updates over 16 inputs and L latches
+
+   and every input gets a random stimulus of the given number of
+   cycles. The same seed always gives the same program. With a period,
+   the stimulus repeats its first period cycles, as in a test bench
+   that plays the same sequence over and over (see Periodicity).
+
+     java Generator adder 64 1000 [seed [period]] > adder64.hw
+     java Generator random 10000 500 1000 [seed [period]] > random10k.hw
+*/
+
+class Generator {
+    private StringBuilder out = new StringBuilder();
+    private Random rnd;
+    private List<String> inputs = new ArrayList<String>();
+    private List<String> outputs = new ArrayList<String>();
+    private List<String> latches = new ArrayList<String>();
+    private List<String> updates = new ArrayList<String>();
+
+    Generator(long seed) {
+        rnd = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3)
+            usage();
+        int n = Integer.parseInt(args[1]);
+        boolean random = args[0].equals("random");
+        if (random && args.length < 4)
+            usage();
+        int cycles = Integer.parseInt(args[random ? 3 : 2]);
+        int s = random ? 4 : 3;
+        long seed = args.length > s ? Long.parseLong(args[s]) : 0;
+        int period = args.length > s + 1 ? Integer.parseInt(args[s + 1]) : 0;
+        int l = random ? Integer.parseInt(args[2]) : 0;
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        out.print(generate(args[0], n, l, cycles, seed, period));
+        out.flush();
+    }
+
+    static void usage() {
+        System.err.println("Usage: java Generator adder|counter|shift N cycles [seed [period]]");
+        System.err.println("       java Generator random N latches cycles [seed [period]]");
+        System.exit(-1);
+    }
+
+    // the text of the program; latches is only used by random
+    public static String generate(String kind, int n, int latches, int cycles, long seed) {
+        return generate(kind, n, latches, cycles, seed, 0);
+    }
+
+    // the same with a stimulus that repeats every period cycles, if
+    // period is above 0
+    public static String generate(String kind, int n, int latches, int cycles, long seed, int period) {
+        Generator g = new Generator(seed);
+        if (kind.equals("adder"))
+            g.adder(n);
+        else if (kind.equals("counter"))
+            g.counter(n);
+        else if (kind.equals("shift"))
+            g.shift(n);
+        else if (kind.equals("random"))
+            g.random(n, latches);
+        else
+            usage();
+        return g.program(kind + n, cycles, period);
+    }
+
+    private void update(String name, String expr) {
+        updates.add(name + " = " + expr);
+    }
+
+    private void latch(String in, String out) {
+        latches.add(in + " -> " + out);
+    }
+
+    // x xor y, written with && || ! like the sums of 04-von-Neumann.hw
+    private static String xor(String x, String y) {
+        return x + " && !" + y + " || !" + x + " && " + y;
+    }
+
+    /* The sum of the latched operand la and the input b; with Read
+       the latch loads the input a instead, as in 04-von-Neumann.hw. */
+    private void adder(int n) {
+        inputs.add("Read");
+        for (int i = 0; i < n; i++) {
+            inputs.add("a" + i);
+            inputs.add("b" + i);
+        }
+        for (int i = 0; i < n; i++) {
+            String c = i == 0 ? null : "c" + (i - 1);
+            latch("ma" + i, "la" + i);
+            update("p" + i, xor("la" + i, "b" + i));
+            update("g" + i, "la" + i + " && b" + i);
+            update("s" + i, c == null ? "p" + i : xor("p" + i, c));
+            update("c" + i, c == null ? "g" + i : "g" + i + " || p" + i + " && " + c);
+            update("ma" + i, "Read && a" + i + " || !Read && s" + i);
+            outputs.add("s" + i);
+        }
+        latch("Overflow", "mOverflow");
+        update("Overflow", "c" + (n - 1) + " || mOverflow && !Read");
+        outputs.add("Overflow");
+    }
+
+    private void counter(int n) {
+        inputs.add("Enable");
+        for (int i = 0; i < n; i++) {
+            update("t" + i, i == 0 ? "Enable" : "t" + (i - 1) + " && q" + (i - 1));
+            update("d" + i, xor("q" + i, "t" + i));
+            latch("d" + i, "q" + i);
+            outputs.add("d" + i);
+        }
+    }
+
+    private void shift(int n) {
+        inputs.add("In");
+        for (int i = 0; i < n; i++) {
+            update("s" + i, i == 0 ? "In" : "q" + (i - 1));
+            latch("s" + i, "q" + i);
+        }
+        outputs.add("s" + (n - 1));
+    }
+
+    /* Every update combines two or three signals defined before it, so
+       the graph has no loops; the latches feed back random updates. */
+    private void random(int n, int l) {
+        List<String> signals = new ArrayList<String>();
+        for (int i = 0; i < 16; i++) {
+            inputs.add("i" + i);
+            signals.add("i" + i);
+        }
+        for (int i = 0; i < l; i++)
+            signals.add("l" + i);
+        for (int i = 0; i < n; i++) {
+            String a = pick(signals);
+            String b = pick(signals);
+            switch (rnd.nextInt(5)) {
+            case 0:  update("u" + i, a + " && " + b); break;
+            case 1:  update("u" + i, a + " || !" + b); break;
+            case 2:  update("u" + i, "!(" + a + " && " + b + ")"); break;
+            case 3:  update("u" + i, xor(a, b)); break;
+            default: update("u" + i, a + " && " + b + " || !" + a + " && " + pick(signals)); break;
+            }
+            signals.add("u" + i);
+        }
+        for (int i = 0; i < l; i++)
+            latch("u" + (n - 1 - rnd.nextInt(n)), "l" + i);
+        for (int i = Math.max(0, n - 8); i < n; i++)
+            outputs.add("u" + i);
+    }
+
+    private String pick(List<String> signals) {
+        return signals.get(rnd.nextInt(signals.size()));
+    }
+
+    private String program(String name, int cycles, int period) {
+        out.append(".hardware ").append(name).append("\n\n");
+        out.append(".inputs");
+        for (String s : inputs)
+            out.append(' ').append(s);
+        out.append("\n.outputs");
+        for (String s : outputs)
+            out.append(' ').append(s);
+        out.append("\n\n.latches\n");
+        for (String s : latches)
+            out.append(s).append('\n');
+        out.append("\n.update\n");
+        for (String s : updates)
+            out.append(s).append('\n');
+        out.append("\n.simulate\n");
+        for (String s : inputs) {
+            out.append(s).append('=');
+            int from = out.length();
+            for (int i = 0; i < cycles; i++)
+                out.append(period > 0 && i >= period ? out.charAt(from + i - period)
+                           : rnd.nextBoolean() ? '1' : '0');
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,124 @@
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The stages measured by hwbench.HwBenchmark (see bench/hwbench/Stages.java).
+
+public class HwStages implements hwbench.Stages {
+    private String text;
+    private byte[] bytes;
+    private List<? extends Token> tokens;
+    private ParseTree tree;
+    private Circuit circuit;    // as built, before any levelize
+    private int simulate;
+
+    // a second circuit that is kept running for nextCycle
+    private Circuit running;
+    private Environment env;
+    private int cycle;
+
+    public void setup(String file) throws IOException {
+        int star = file.indexOf('*');
+        text = new String(Files.readAllBytes(Paths.get(star < 0 ? file : file.substring(0, star))),
+                          StandardCharsets.UTF_8);
+        if (star >= 0)
+            text = replicate(text, Integer.parseInt(file.substring(star + 1)));
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        simulate = new StimulusScanner(bytes).find();
+
+        tokens = new hwLexer(CharStreams.fromString(text)).getAllTokens();
+        tree = (ParseTree) parse();
+        circuit = (Circuit) buildAst();
+
+        running = (Circuit) buildAst();
+        if (running.simlength < 2)
+            throw new IllegalStateException(file + " has less than two cycles");
+        env = new Environment();
+        running.resolve(env);
+        running.typecheck(env);
+        running.initialize(env);
+        cycle = 1;
+    }
+
+    public Object lex() {
+        return new hwLexer(CharStreams.fromString(text)).getAllTokens();
+    }
+
+    public Object parse() {
+        hwParser parser = new hwParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        return parser.start();
+    }
+
+    public Object buildAst() {
+        return new AstMaker().visit(tree);
+    }
+
+    public Object scanStimulus() {
+        return new StimulusScanner(bytes).scan(simulate);
+    }
+
+    /* resolve levelizes the updates of the circuit it is called on, so
+       every call gets a new Circuit of the updates in source order;
+       making it only copies references. */
+    public Object typecheck() {
+        Circuit c = new Circuit(circuit.name, circuit.inputs, circuit.outputs, circuit.latches,
+                                circuit.updates, circuit.siminputs);
+        Environment env = new Environment();
+        c.resolve(env);
+        c.typecheck(env);
+        return env;
+    }
+
+    public Object nextCycle() {
+        running.nextCycle(env, cycle);
+        if (++cycle == running.simlength)
+            cycle = 1;
+        return env;
+    }
+
+    /* A circuit of copies of the one in text, where every signal of copy
+       k is renamed to name_k, so the result is still a valid .hw file.
+       The lexer does the work of finding the names and dropping the
+       comments; the sections are put together again one copy after
+       the other. */
+    static String replicate(String text, int copies) {
+        Map<String, List<Token>> sections = new LinkedHashMap<String, List<Token>>();
+        List<Token> section = null;
+        for (Token t : new hwLexer(CharStreams.fromString(text)).getAllTokens()) {
+            if (t.getText().startsWith(".")) {
+                section = new ArrayList<Token>();
+                sections.put(t.getText(), section);
+            } else {
+                section.add(t);
+            }
+        }
+
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, List<Token>> s : sections.entrySet()) {
+            out.append(s.getKey());
+            if (s.getKey().equals(".hardware")) {
+                out.append(' ').append(s.getValue().get(0).getText()).append('x').append(copies).append('\n');
+                continue;
+            }
+            for (int k = 0; k < copies; k++) {
+                for (Token t : s.getValue()) {
+                    out.append(' ').append(t.getText());
+                    if (t.getType() == hwLexer.ID)
+                        out.append('_').append(k);
+                }
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/* The end-to-end driver for the circuits of the Generator: it
+   simulates a circuit for every point of a sweep and prints one line
+   per point, with the time of the front end (reading, parsing and
+   building the Circuit), of the simulation and of printing the traces,
+   the simulated cycles per second, and the peak heap during the run.
+
+     java Scaling [-O] [-aig] [-jit] [-event] [-runs R] kind n=A[..B] latches=A[..B] cycles=A[..B]
+
+   A range A..B doubles from A up to B. The defaults are n=1024,
+   latches=64 and cycles=1000; latches is only used by random. With
+   -runs R every point is run R times and the fastest run is shown,
+   which lets the JIT warm up on the small points. */
+
+class Scaling {
+    static boolean optimize = false;
+    static boolean aig = false;
+    static boolean jit = false;
+    static boolean event = false;
+    static int runs = 1;
+
+    public static void main(String[] args) throws IOException {
+        String kind = null;
+        List<Integer> ns = range("1024");
+        List<Integer> ls = range("64");
+        List<Integer> cs = range("1000");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-O"))
+                optimize = true;
+            else if (args[i].equals("-aig"))
+                aig = true;
+            else if (args[i].equals("-jit"))
+                jit = true;
+            else if (args[i].equals("-event"))
+                event = true;
+            else if (args[i].equals("-runs") && i + 1 < args.length)
+                runs = Integer.parseInt(args[++i]);
+            else if (args[i].startsWith("n="))
+                ns = range(args[i].substring(2));
+            else if (args[i].startsWith("latches="))
+                ls = range(args[i].substring(8));
+            else if (args[i].startsWith("cycles="))
+                cs = range(args[i].substring(7));
+            else if (kind == null && !args[i].startsWith("-"))
+                kind = args[i];
+            else
+                usage();
+        }
+        if (kind == null)
+            usage();
+        if (!kind.equals("random"))
+            ls = range("0");
+
+        System.out.printf("%-8s %8s %8s %10s %10s %10s %10s %12s %10s%n", "kind", "n", "latches",
+                          "cycles", "front ms", "sim ms", "print ms", "cycles/s", "heap MB");
+        for (int n : ns)
+            for (int l : ls)
+                for (int c : cs)
+                    point(kind, n, l, c);
+    }
+
+    static void usage() {
+        System.err.println("Usage: java Scaling [-O] [-aig] [-jit] [-event] [-runs R]");
+        System.err.println("                    adder|counter|shift|random [n=A[..B]] [latches=A[..B]] [cycles=A[..B]]");
+        System.exit(-1);
+    }
+
+    static List<Integer> range(String arg) {
+        List<Integer> values = new ArrayList<Integer>();
+        int dots = arg.indexOf("..");
+        int from = Integer.parseInt(dots < 0 ? arg : arg.substring(0, dots));
+        int to = dots < 0 ? from : Integer.parseInt(arg.substring(dots + 2));
+        for (int v = from; v <= to; v = v == 0 ? 1 : 2 * v)
+            values.add(v);
+        return values;
+    }
+
+    static void point(String kind, int n, int latches, int cycles) throws IOException {
+        Path file = Files.createTempFile(kind + n, ".hw");
+        Files.write(file, Generator.generate(kind, n, latches, cycles, 0).getBytes(StandardCharsets.UTF_8));
+
+        long[] best = null;
+        long heap = 0;
+        for (int r = 0; r < runs; r++) {
+            System.gc();
+            resetPeaks();
+            long[] times = run(file.toString());
+            heap = Math.max(heap, peakHeap());
+            if (best == null || times[1] < best[1])
+                best = times;
+        }
+        Files.delete(file);
+
+        System.out.printf("%-8s %8d %8d %10d %10.1f %10.1f %10.1f %12.0f %10.1f%n", kind, n, latches, cycles,
+                          best[0] / 1e6, best[1] / 1e6, best[2] / 1e6, cycles / (best[1] / 1e9),
+                          heap / (1024.0 * 1024.0));
+    }
+
+    // the nanoseconds of the front end, the simulation and the printing
+    static long[] run(String filename) throws IOException {
+        long start = System.nanoTime();
+        Circuit p = main.parse(filename);
+        if (aig)
+            p = new Aig(p).toCircuit();
+        if (optimize)
+            p.simplify();
+        long parsed = System.nanoTime();
+
+        if (jit)
+            CircuitCompiler.simulate(p);
+        else if (event)
+            new EventSimulator(p).simulate();
+        else
+            p.simulate(new Environment());
+        long simulated = System.nanoTime();
+
+        PrintWriter out = new PrintWriter(new OutputStream() {
+                public void write(int b) {}
+                public void write(byte[] b, int off, int len) {}
+            });
+        Circuit.printTraces(out, p.siminputs, p.simoutputs);
+        long printed = System.nanoTime();
+        return new long[] { parsed - start, simulated - parsed, printed - simulated };
+    }
+
+    static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    static long peakHeap() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                bytes += pool.getPeakUsage().getUsed();
+        return bytes;
+    }
+}
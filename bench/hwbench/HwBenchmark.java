@@ -0,0 +1,77 @@
+package hwbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* JMH benchmarks for the stages of the simulator, on the bundled
+   samples and on scaled-up copies of 04-von-Neumann.hw. Run them with
+   "make bench", which also turns on the GC/allocation profiler; other
+   JMH options go in benchargs, for instance
+
+     make bench benchargs="-p file=03-trafiklys.hw nextCycle"
+*/
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HwBenchmark {
+    @Param({"01-hello-world.hw", "02-trafiklys-minimal.hw", "03-trafiklys.hw", "04-von-Neumann.hw",
+            "04-von-Neumann.hw*100", "04-von-Neumann.hw*1000"})
+    public String file;
+
+    private Stages stages;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        stages = (Stages) Class.forName("HwStages").getDeclaredConstructor().newInstance();
+        stages.setup(file);
+    }
+
+    @Benchmark
+    public Object lex() {
+        return stages.lex();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return stages.parse();
+    }
+
+    @Benchmark
+    public Object buildAst() {
+        return stages.buildAst();
+    }
+
+    @Benchmark
+    public Object scanStimulus() {
+        return stages.scanStimulus();
+    }
+
+    @Benchmark
+    public Object typecheck() {
+        return stages.typecheck();
+    }
+
+    // simulated cycles per second
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object nextCycle() {
+        return stages.nextCycle();
+    }
+}
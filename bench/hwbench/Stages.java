@@ -0,0 +1,33 @@
+package hwbench;
+
+/* The stages of the simulator that HwBenchmark measures. JMH does not
+   accept benchmarks in the default package, where all of the simulator
+   lives, so the benchmark only knows this interface, and HwStages in
+   the default package implements it with the simulator's classes.
+
+   The file is the name of a .hw file, or "name*K" for a circuit of K
+   renamed copies of the one in the file. setup prepares the input of
+   every stage, so each stage is measured on its own. */
+
+public interface Stages {
+    void setup(String file) throws Exception;
+
+    // hwLexer over the whole text
+    Object lex();
+
+    // hwParser.start on the tokens from lex
+    Object parse();
+
+    // AstMaker on the parse tree from parse
+    Object buildAst();
+
+    // StimulusScanner on the .simulate section
+    Object scanStimulus();
+
+    // Circuit.resolve and Circuit.typecheck of a fresh circuit, not yet
+    // levelized, in a fresh environment
+    Object typecheck();
+
+    // one Circuit.nextCycle of an initialized circuit
+    Object nextCycle();
+}
@@ -7,7 +7,7 @@ start   :  '.hardware' name=ID
 	   ('.outputs' outs+=ID+)?
 	   '.latches' ls+=latchdecl*
 	   '.update' up+=updatedecl+
-	   '.simulate' simin+=simInp+
+	   '.simulate' simin+=simInp*
 	   EOF ;
 
 latchdecl : in=ID '->' out=ID  ;
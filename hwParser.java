@@ -244,10 +244,10 @@ public class hwParser extends Parser {
 			} while ( _la==ID );
 			setState(41);
 			match(T__5);
-			setState(43); 
+			setState(45);
 			_errHandler.sync(this);
 			_la = _input.LA(1);
-			do {
+			while (_la==ID) {
 				{
 				{
 				setState(42);
@@ -255,11 +255,11 @@ public class hwParser extends Parser {
 				((StartContext)_localctx).simin.add(((StartContext)_localctx).simInp);
 				}
 				}
-				setState(45); 
+				setState(47);
 				_errHandler.sync(this);
 				_la = _input.LA(1);
-			} while ( _la==ID );
-			setState(47);
+			}
+			setState(48);
 			match(EOF);
 			}
 		}
@@ -307,11 +307,11 @@ public class hwParser extends Parser {
 		try {
 			enterOuterAlt(_localctx, 1);
 			{
-			setState(49);
-			((LatchdeclContext)_localctx).in = match(ID);
 			setState(50);
-			match(T__6);
+			((LatchdeclContext)_localctx).in = match(ID);
 			setState(51);
+			match(T__6);
+			setState(52);
 			((LatchdeclContext)_localctx).out = match(ID);
 			}
 		}
@@ -359,11 +359,11 @@ public class hwParser extends Parser {
 		try {
 			enterOuterAlt(_localctx, 1);
 			{
-			setState(53);
-			((UpdatedeclContext)_localctx).write = match(ID);
 			setState(54);
-			match(T__7);
+			((UpdatedeclContext)_localctx).write = match(ID);
 			setState(55);
+			match(T__7);
+			setState(56);
 			((UpdatedeclContext)_localctx).e = expr(0);
 			}
 		}
@@ -409,11 +409,11 @@ public class hwParser extends Parser {
 		try {
 			enterOuterAlt(_localctx, 1);
 			{
-			setState(57);
-			((SimInpContext)_localctx).in = match(ID);
 			setState(58);
-			match(T__7);
+			((SimInpContext)_localctx).in = match(ID);
 			setState(59);
+			match(T__7);
+			setState(60);
 			((SimInpContext)_localctx).str = match(BITSTRING);
 			}
 		}
@@ -567,7 +567,7 @@ public class hwParser extends Parser {
 			int _alt;
 			enterOuterAlt(_localctx, 1);
 			{
-			setState(69);
+			setState(70);
 			_errHandler.sync(this);
 			switch (_input.LA(1)) {
 			case T__8:
@@ -576,9 +576,9 @@ public class hwParser extends Parser {
 				_ctx = _localctx;
 				_prevctx = _localctx;
 
-				setState(62);
-				match(T__8);
 				setState(63);
+				match(T__8);
+				setState(64);
 				((NegationContext)_localctx).e = expr(5);
 				}
 				break;
@@ -587,7 +587,7 @@ public class hwParser extends Parser {
 				_localctx = new SignalContext(_localctx);
 				_ctx = _localctx;
 				_prevctx = _localctx;
-				setState(64);
+				setState(65);
 				((SignalContext)_localctx).x = match(ID);
 				}
 				break;
@@ -596,11 +596,11 @@ public class hwParser extends Parser {
 				_localctx = new ParenthesisContext(_localctx);
 				_ctx = _localctx;
 				_prevctx = _localctx;
-				setState(65);
-				match(T__11);
 				setState(66);
-				((ParenthesisContext)_localctx).e = expr(0);
+				match(T__11);
 				setState(67);
+				((ParenthesisContext)_localctx).e = expr(0);
+				setState(68);
 				match(T__12);
 				}
 				break;
@@ -608,7 +608,7 @@ public class hwParser extends Parser {
 				throw new NoViableAltException(this);
 			}
 			_ctx.stop = _input.LT(-1);
-			setState(79);
+			setState(80);
 			_errHandler.sync(this);
 			_alt = getInterpreter().adaptivePredict(_input,9,_ctx);
 			while ( _alt!=2 && _alt!=org.antlr.v4.runtime.atn.ATN.INVALID_ALT_NUMBER ) {
@@ -616,7 +616,7 @@ public class hwParser extends Parser {
 					if ( _parseListeners!=null ) triggerExitRuleEvent();
 					_prevctx = _localctx;
 					{
-					setState(77);
+					setState(78);
 					_errHandler.sync(this);
 					switch ( getInterpreter().adaptivePredict(_input,8,_ctx) ) {
 					case 1:
@@ -624,11 +624,11 @@ public class hwParser extends Parser {
 						_localctx = new ConjunctionContext(new ExprContext(_parentctx, _parentState));
 						((ConjunctionContext)_localctx).e1 = _prevctx;
 						pushNewRecursionContext(_localctx, _startState, RULE_expr);
-						setState(71);
-						if (!(precpred(_ctx, 4))) throw new FailedPredicateException(this, "precpred(_ctx, 4)");
 						setState(72);
-						match(T__9);
+						if (!(precpred(_ctx, 4))) throw new FailedPredicateException(this, "precpred(_ctx, 4)");
 						setState(73);
+						match(T__9);
+						setState(74);
 						((ConjunctionContext)_localctx).e2 = expr(5);
 						}
 						break;
@@ -637,18 +637,18 @@ public class hwParser extends Parser {
 						_localctx = new DisjunctionContext(new ExprContext(_parentctx, _parentState));
 						((DisjunctionContext)_localctx).e1 = _prevctx;
 						pushNewRecursionContext(_localctx, _startState, RULE_expr);
-						setState(74);
-						if (!(precpred(_ctx, 3))) throw new FailedPredicateException(this, "precpred(_ctx, 3)");
 						setState(75);
-						match(T__10);
+						if (!(precpred(_ctx, 3))) throw new FailedPredicateException(this, "precpred(_ctx, 3)");
 						setState(76);
+						match(T__10);
+						setState(77);
 						((DisjunctionContext)_localctx).e2 = expr(4);
 						}
 						break;
 					}
 					} 
 				}
-				setState(81);
+				setState(82);
 				_errHandler.sync(this);
 				_alt = getInterpreter().adaptivePredict(_input,9,_ctx);
 			}
@@ -683,57 +683,57 @@ public class hwParser extends Parser {
 	}
 
 	public static final String _serializedATN =
-		"\u0004\u0001\u0012S\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0002"+
+		"\u0004\u0001\u0012T\u0002\u0000\u0007\u0000\u0002\u0001\u0007\u0001\u0002"+
 		"\u0002\u0007\u0002\u0002\u0003\u0007\u0003\u0002\u0004\u0007\u0004\u0001"+
 		"\u0000\u0001\u0000\u0001\u0000\u0001\u0000\u0004\u0000\u000f\b\u0000\u000b"+
 		"\u0000\f\u0000\u0010\u0003\u0000\u0013\b\u0000\u0001\u0000\u0001\u0000"+
 		"\u0004\u0000\u0017\b\u0000\u000b\u0000\f\u0000\u0018\u0003\u0000\u001b"+
 		"\b\u0000\u0001\u0000\u0001\u0000\u0005\u0000\u001f\b\u0000\n\u0000\f\u0000"+
 		"\"\t\u0000\u0001\u0000\u0001\u0000\u0004\u0000&\b\u0000\u000b\u0000\f"+
-		"\u0000\'\u0001\u0000\u0001\u0000\u0004\u0000,\b\u0000\u000b\u0000\f\u0000"+
-		"-\u0001\u0000\u0001\u0000\u0001\u0001\u0001\u0001\u0001\u0001\u0001\u0001"+
-		"\u0001\u0002\u0001\u0002\u0001\u0002\u0001\u0002\u0001\u0003\u0001\u0003"+
-		"\u0001\u0003\u0001\u0003\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004"+
-		"\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0003\u0004F\b\u0004"+
-		"\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004"+
-		"\u0005\u0004N\b\u0004\n\u0004\f\u0004Q\t\u0004\u0001\u0004\u0000\u0001"+
-		"\b\u0005\u0000\u0002\u0004\u0006\b\u0000\u0000X\u0000\n\u0001\u0000\u0000"+
-		"\u0000\u00021\u0001\u0000\u0000\u0000\u00045\u0001\u0000\u0000\u0000\u0006"+
-		"9\u0001\u0000\u0000\u0000\bE\u0001\u0000\u0000\u0000\n\u000b\u0005\u0001"+
-		"\u0000\u0000\u000b\u0012\u0005\u000e\u0000\u0000\f\u000e\u0005\u0002\u0000"+
-		"\u0000\r\u000f\u0005\u000e\u0000\u0000\u000e\r\u0001\u0000\u0000\u0000"+
-		"\u000f\u0010\u0001\u0000\u0000\u0000\u0010\u000e\u0001\u0000\u0000\u0000"+
-		"\u0010\u0011\u0001\u0000\u0000\u0000\u0011\u0013\u0001\u0000\u0000\u0000"+
-		"\u0012\f\u0001\u0000\u0000\u0000\u0012\u0013\u0001\u0000\u0000\u0000\u0013"+
-		"\u001a\u0001\u0000\u0000\u0000\u0014\u0016\u0005\u0003\u0000\u0000\u0015"+
-		"\u0017\u0005\u000e\u0000\u0000\u0016\u0015\u0001\u0000\u0000\u0000\u0017"+
-		"\u0018\u0001\u0000\u0000\u0000\u0018\u0016\u0001\u0000\u0000\u0000\u0018"+
-		"\u0019\u0001\u0000\u0000\u0000\u0019\u001b\u0001\u0000\u0000\u0000\u001a"+
-		"\u0014\u0001\u0000\u0000\u0000\u001a\u001b\u0001\u0000\u0000\u0000\u001b"+
-		"\u001c\u0001\u0000\u0000\u0000\u001c \u0005\u0004\u0000\u0000\u001d\u001f"+
-		"\u0003\u0002\u0001\u0000\u001e\u001d\u0001\u0000\u0000\u0000\u001f\"\u0001"+
-		"\u0000\u0000\u0000 \u001e\u0001\u0000\u0000\u0000 !\u0001\u0000\u0000"+
-		"\u0000!#\u0001\u0000\u0000\u0000\" \u0001\u0000\u0000\u0000#%\u0005\u0005"+
-		"\u0000\u0000$&\u0003\u0004\u0002\u0000%$\u0001\u0000\u0000\u0000&\'\u0001"+
-		"\u0000\u0000\u0000\'%\u0001\u0000\u0000\u0000\'(\u0001\u0000\u0000\u0000"+
-		"()\u0001\u0000\u0000\u0000)+\u0005\u0006\u0000\u0000*,\u0003\u0006\u0003"+
-		"\u0000+*\u0001\u0000\u0000\u0000,-\u0001\u0000\u0000\u0000-+\u0001\u0000"+
-		"\u0000\u0000-.\u0001\u0000\u0000\u0000./\u0001\u0000\u0000\u0000/0\u0005"+
-		"\u0000\u0000\u00010\u0001\u0001\u0000\u0000\u000012\u0005\u000e\u0000"+
-		"\u000023\u0005\u0007\u0000\u000034\u0005\u000e\u0000\u00004\u0003\u0001"+
-		"\u0000\u0000\u000056\u0005\u000e\u0000\u000067\u0005\b\u0000\u000078\u0003"+
-		"\b\u0004\u00008\u0005\u0001\u0000\u0000\u00009:\u0005\u000e\u0000\u0000"+
-		":;\u0005\b\u0000\u0000;<\u0005\u000f\u0000\u0000<\u0007\u0001\u0000\u0000"+
-		"\u0000=>\u0006\u0004\uffff\uffff\u0000>?\u0005\t\u0000\u0000?F\u0003\b"+
-		"\u0004\u0005@F\u0005\u000e\u0000\u0000AB\u0005\f\u0000\u0000BC\u0003\b"+
-		"\u0004\u0000CD\u0005\r\u0000\u0000DF\u0001\u0000\u0000\u0000E=\u0001\u0000"+
-		"\u0000\u0000E@\u0001\u0000\u0000\u0000EA\u0001\u0000\u0000\u0000FO\u0001"+
-		"\u0000\u0000\u0000GH\n\u0004\u0000\u0000HI\u0005\n\u0000\u0000IN\u0003"+
-		"\b\u0004\u0005JK\n\u0003\u0000\u0000KL\u0005\u000b\u0000\u0000LN\u0003"+
-		"\b\u0004\u0004MG\u0001\u0000\u0000\u0000MJ\u0001\u0000\u0000\u0000NQ\u0001"+
-		"\u0000\u0000\u0000OM\u0001\u0000\u0000\u0000OP\u0001\u0000\u0000\u0000"+
-		"P\t\u0001\u0000\u0000\u0000QO\u0001\u0000\u0000\u0000\n\u0010\u0012\u0018"+
-		"\u001a \'-EMO";
+		"\u0000\'\u0001\u0000\u0001\u0000\u0005\u0000,\b\u0000\n\u0000\f\u0000"+
+		"/\t\u0000\u0001\u0000\u0001\u0000\u0001\u0001\u0001\u0001\u0001\u0001"+
+		"\u0001\u0001\u0001\u0002\u0001\u0002\u0001\u0002\u0001\u0002\u0001\u0003"+
+		"\u0001\u0003\u0001\u0003\u0001\u0003\u0001\u0004\u0001\u0004\u0001\u0004"+
+		"\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0003\u0004"+
+		"G\b\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004\u0001\u0004"+
+		"\u0001\u0004\u0005\u0004O\b\u0004\n\u0004\f\u0004R\t\u0004\u0001\u0004"+
+		"\u0000\u0001\b\u0005\u0000\u0002\u0004\u0006\b\u0000\u0000Y\u0000\n\u0001"+
+		"\u0000\u0000\u0000\u00022\u0001\u0000\u0000\u0000\u00046\u0001\u0000\u0000"+
+		"\u0000\u0006:\u0001\u0000\u0000\u0000\bF\u0001\u0000\u0000\u0000\n\u000b"+
+		"\u0005\u0001\u0000\u0000\u000b\u0012\u0005\u000e\u0000\u0000\f\u000e\u0005"+
+		"\u0002\u0000\u0000\r\u000f\u0005\u000e\u0000\u0000\u000e\r\u0001\u0000"+
+		"\u0000\u0000\u000f\u0010\u0001\u0000\u0000\u0000\u0010\u000e\u0001\u0000"+
+		"\u0000\u0000\u0010\u0011\u0001\u0000\u0000\u0000\u0011\u0013\u0001\u0000"+
+		"\u0000\u0000\u0012\f\u0001\u0000\u0000\u0000\u0012\u0013\u0001\u0000\u0000"+
+		"\u0000\u0013\u001a\u0001\u0000\u0000\u0000\u0014\u0016\u0005\u0003\u0000"+
+		"\u0000\u0015\u0017\u0005\u000e\u0000\u0000\u0016\u0015\u0001\u0000\u0000"+
+		"\u0000\u0017\u0018\u0001\u0000\u0000\u0000\u0018\u0016\u0001\u0000\u0000"+
+		"\u0000\u0018\u0019\u0001\u0000\u0000\u0000\u0019\u001b\u0001\u0000\u0000"+
+		"\u0000\u001a\u0014\u0001\u0000\u0000\u0000\u001a\u001b\u0001\u0000\u0000"+
+		"\u0000\u001b\u001c\u0001\u0000\u0000\u0000\u001c \u0005\u0004\u0000\u0000"+
+		"\u001d\u001f\u0003\u0002\u0001\u0000\u001e\u001d\u0001\u0000\u0000\u0000"+
+		"\u001f\"\u0001\u0000\u0000\u0000 \u001e\u0001\u0000\u0000\u0000 !\u0001"+
+		"\u0000\u0000\u0000!#\u0001\u0000\u0000\u0000\" \u0001\u0000\u0000\u0000"+
+		"#%\u0005\u0005\u0000\u0000$&\u0003\u0004\u0002\u0000%$\u0001\u0000\u0000"+
+		"\u0000&\'\u0001\u0000\u0000\u0000\'%\u0001\u0000\u0000\u0000\'(\u0001"+
+		"\u0000\u0000\u0000()\u0001\u0000\u0000\u0000)-\u0005\u0006\u0000\u0000"+
+		"*,\u0003\u0006\u0003\u0000+*\u0001\u0000\u0000\u0000,/\u0001\u0000\u0000"+
+		"\u0000-+\u0001\u0000\u0000\u0000-.\u0001\u0000\u0000\u0000.0\u0001\u0000"+
+		"\u0000\u0000/-\u0001\u0000\u0000\u000001\u0005\u0000\u0000\u00011\u0001"+
+		"\u0001\u0000\u0000\u000023\u0005\u000e\u0000\u000034\u0005\u0007\u0000"+
+		"\u000045\u0005\u000e\u0000\u00005\u0003\u0001\u0000\u0000\u000067\u0005"+
+		"\u000e\u0000\u000078\u0005\b\u0000\u000089\u0003\b\u0004\u00009\u0005"+
+		"\u0001\u0000\u0000\u0000:;\u0005\u000e\u0000\u0000;<\u0005\b\u0000\u0000"+
+		"<=\u0005\u000f\u0000\u0000=\u0007\u0001\u0000\u0000\u0000>?\u0006\u0004"+
+		"\uffff\uffff\u0000?@\u0005\t\u0000\u0000@G\u0003\b\u0004\u0005AG\u0005"+
+		"\u000e\u0000\u0000BC\u0005\f\u0000\u0000CD\u0003\b\u0004\u0000DE\u0005"+
+		"\r\u0000\u0000EG\u0001\u0000\u0000\u0000F>\u0001\u0000\u0000\u0000FA\u0001"+
+		"\u0000\u0000\u0000FB\u0001\u0000\u0000\u0000GP\u0001\u0000\u0000\u0000"+
+		"HI\n\u0004\u0000\u0000IJ\u0005\n\u0000\u0000JO\u0003\b\u0004\u0005KL\n"+
+		"\u0003\u0000\u0000LM\u0005\u000b\u0000\u0000MO\u0003\b\u0004\u0004NH\u0001"+
+		"\u0000\u0000\u0000NK\u0001\u0000\u0000\u0000OR\u0001\u0000\u0000\u0000"+
+		"PN\u0001\u0000\u0000\u0000PQ\u0001\u0000\u0000\u0000Q\t\u0001\u0000\u0000"+
+		"\u0000RP\u0001\u0000\u0000\u0000\n\u0010\u0012\u0018\u001a \'-FNP";
 	public static final ATN _ATN =
 		new ATNDeserializer().deserialize(_serializedATN.toCharArray());
 	static {
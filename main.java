@@ -2,40 +2,401 @@ import org.antlr.v4.runtime.tree.ParseTreeVisitor;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
 import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class main {
+    // the options, the same for every file
+    static int random=0;  // number of random testbenches for the bit-parallel engine
+    static long seed=0;
+    static boolean jit=false;
+    static boolean optimize=false;
+    static boolean aig=false;
+    static boolean event=false;
+    static boolean table=false;  // simulate by a truth table of the circuit
+    static boolean periodic=false;  // fast-forward once the run repeats
+    static int parallel=0;  // threads evaluating the levels of a cycle, 0: one
+    static int grain=ParallelSimulator.GRAIN;  // updates a thread evaluates in one go
+    static boolean parseTree=true;  // false: build the Circuit while parsing
+    static int jobs=Runtime.getRuntime().availableProcessors();
+    static int snapshot=0;  // write a snapshot every so many cycles
+    static String snapshotDir=".";
+    static String resume=null;  // the snapshot to resume from
+    static List<int[]> windows=new ArrayList<int[]>();  // only print these cycles
+    static int checkpoint=1024;  // cycles between the checkpoints for the windows
+    static String checkpoints=null;  // or take them from the snapshots in here
+    static String profile=null;  // the file for the -profile report
+    static String vcd=null;  // the file or directory for -vcd
+    static String cache=null;  // the directory of the CircuitCache
+    static String server=null;  // where the Server takes its jobs from
+
     public static void main(String[] args) throws IOException{
-	// we expect exactly one argument: the name of the input file
-	if (args.length!=1) {
-	    System.err.println("\n");
-	    System.err.println("Hardware Simulator\n");
-	    System.err.println("==================\n\n");
-	    System.err.println("Please give as input argument a filename\n");
+	// we expect the name of the input file, possibly after some options;
+	// several files, directories or globs make a batch run
+	List<String> filenames=new ArrayList<String>();
+	boolean batch=false;
+	try {
+	    for (int i=0; i<args.length; i++) {
+		int last=option(args,i);
+		if (last>=0)
+		    i=last;
+		else if (args[i].equals("-server") && i+1<args.length)
+		    server=args[++i];
+		else if (!args[i].startsWith("-")) {
+		    List<String> files=expand(args[i]);
+		    batch|=files.size()!=1 || !files.get(0).equals(args[i]);
+		    filenames.addAll(files);
+		}
+		else
+		    usage();
+	    }
+	} catch (SimulationError e) {
+	    System.err.println(e.getMessage());
 	    System.exit(-1);
 	}
-	String filename=args[0];
+	if (server!=null) {
+	    try {
+		Server.serve(server);
+	    } catch (SimulationError e) {
+		System.err.println(e.getMessage());
+		System.exit(-1);
+	    }
+	    return;
+	}
+	if (filenames.isEmpty())
+	    usage();
+	if (profile!=null)
+	    Files.deleteIfExists(Paths.get(profile));
 
-	// open the input file
-	CharStream input = CharStreams.fromFileName(filename);
-	    //new ANTLRFileStream (filename); // depricated
-	
+	if (filenames.size()==1 && !batch) {
+	    PrintWriter out=new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out),1<<16));
+	    PrintWriter err=new PrintWriter(System.err,true);
+	    try {
+		simulate(filenames.get(0),out,err);
+	    } catch (SimulationError e) {
+		out.flush();
+		System.err.println(e.getMessage());
+		System.exit(-1);
+	    }
+	    out.flush();
+	} else {
+	    /* the jobs of a batch must not write the same files: snapshots
+	       are named after the circuit, which several files can share */
+	    String shared=vcd!=null && !Files.isDirectory(Paths.get(vcd)) ? "-vcd with a file instead of a directory"
+		: snapshot>0 ? "-snapshot" : resume!=null ? "-resume" : checkpoints!=null ? "-checkpoints" : null;
+	    if (shared!=null) {
+		System.err.println(shared+" only works for a single file.");
+		System.exit(-1);
+	    }
+	    if (!runBatch(filenames))
+		System.exit(-1);
+	}
+    }
+
+    // sets the option at args[i], returning the index of its last
+    // argument, or -1 if args[i] is not an option; a value out of
+    // range is a SimulationError
+    static int option(String[] args, int i) {
+	if (args[i].equals("-jit"))
+	    jit=true;
+	else if (args[i].equals("-O"))
+	    optimize=true;
+	else if (args[i].equals("-aig"))
+	    aig=true;
+	else if (args[i].equals("-event"))
+	    event=true;
+	else if (args[i].equals("-table"))
+	    table=true;
+	else if (args[i].equals("-periodic"))
+	    periodic=true;
+	else if (args[i].equals("-parallel") && i+1<args.length) {
+	    parallel=Integer.parseInt(args[++i]);
+	    if (parallel<1)
+		throw new SimulationError("-parallel needs at least 1 thread, not "+parallel);
+	}
+	else if (args[i].equals("-grain") && i+1<args.length) {
+	    grain=Integer.parseInt(args[++i]);
+	    if (grain<1)
+		throw new SimulationError("-grain needs at least 1 update, not "+grain);
+	}
+	else if (args[i].equals("-noparsetree"))
+	    parseTree=false;
+	else if (args[i].equals("-random") && i+1<args.length)
+	    random=Integer.parseInt(args[++i]);
+	else if (args[i].equals("-seed") && i+1<args.length)
+	    seed=Long.parseLong(args[++i]);
+	else if (args[i].equals("-jobs") && i+1<args.length)
+	    jobs=Integer.parseInt(args[++i]);
+	else if (args[i].equals("-snapshot") && i+2<args.length) {
+	    snapshot=Integer.parseInt(args[++i]);
+	    snapshotDir=args[++i];
+	}
+	else if (args[i].equals("-resume") && i+1<args.length)
+	    resume=args[++i];
+	else if (args[i].equals("-window") && i+1<args.length) {
+	    String[] w=args[++i].split(":");
+	    windows.add(new int[]{Integer.parseInt(w[0]),Integer.parseInt(w[w.length-1])});
+	}
+	else if (args[i].equals("-checkpoint") && i+1<args.length) {
+	    checkpoint=Integer.parseInt(args[++i]);
+	    if (checkpoint<1)
+		throw new SimulationError("-checkpoint needs at least 1 cycle between checkpoints, not "+checkpoint);
+	}
+	else if (args[i].equals("-checkpoints") && i+1<args.length)
+	    checkpoints=args[++i];
+	else if (args[i].equals("-profile") && i+1<args.length)
+	    profile=args[++i];
+	else if (args[i].equals("-vcd") && i+1<args.length)
+	    vcd=args[++i];
+	else if (args[i].equals("-cache") && i+1<args.length)
+	    cache=args[++i];
+	else
+	    return -1;
+	return i;
+    }
+
+    // the options as they are before any are given, for every job of
+    // the Server
+    static void reset() {
+	random=0;
+	seed=0;
+	jit=false;
+	optimize=false;
+	aig=false;
+	event=false;
+	table=false;
+	periodic=false;
+	parallel=0;
+	grain=ParallelSimulator.GRAIN;
+	parseTree=true;
+	jobs=Runtime.getRuntime().availableProcessors();
+	snapshot=0;
+	snapshotDir=".";
+	resume=null;
+	windows=new ArrayList<int[]>();
+	checkpoint=1024;
+	checkpoints=null;
+	profile=null;
+	vcd=null;
+	cache=null;
+    }
+
+    static void usage() {
+	System.err.println("\n");
+	System.err.println("Hardware Simulator\n");
+	System.err.println("==================\n\n");
+	System.err.println("Please give as input argument a filename\n");
+	System.err.println("Several filenames, directories (all .hw files in it) or globs");
+	System.err.println("such as 'designs/*.hw' simulate a batch of files in parallel.\n");
+	System.err.println("Options:");
+	System.err.println("  -O          simplify the update expressions before simulating");
+	System.err.println("  -aig        share common subexpressions through an and-inverter graph");
+	System.err.println("  -jit        simulate with the circuit compiled to JVM bytecode");
+	System.err.println("  -event      only evaluate the updates whose inputs changed");
+	System.err.println("  -table      look every cycle up in a truth table of the inputs and");
+	System.err.println("              latches, for circuits with at most "+TruthTable.MAXBITS+" of them");
+	System.err.println("  -periodic   once the inputs and the latches repeat, fill in the rest");
+	System.err.println("              of the traces without simulating it");
+	System.err.println("  -parallel N evaluate the wide levels of every cycle on N >= 1 threads");
+	System.err.println("  -grain G    with -parallel, split the levels into ranges of G updates");
+	System.err.println("              (default 512); a small G puts every level on the threads");
+	System.err.println("  -noparsetree  build the circuit while parsing, without a parse tree");
+	System.err.println("  -random N   simulate N random testbenches with the bit-parallel engine");
+	System.err.println("  -seed S     seed for the random testbenches (default 0)");
+	System.err.println("  -jobs N     number of files simulated at the same time in a batch");
+	System.err.println("  -snapshot N DIR  write the state to DIR every N cycles");
+	System.err.println("  -resume F   go on from the snapshot in file F, printing the traces");
+	System.err.println("              from its cycle on");
+	System.err.println("  -window A:B only print the cycles A to B, simulated again from the");
+	System.err.println("              nearest checkpoint (can be given several times)");
+	System.err.println("  -checkpoint N  keep a checkpoint every N cycles for -window (default 1024),");
+	System.err.println("              written to DIR as well with -snapshot N DIR");
+	System.err.println("  -checkpoints DIR  use the snapshots in DIR for -window instead");
+	System.err.println("  -profile F  write the time of every phase and, with the reference");
+	System.err.println("              interpreter, the activity of every signal to F as JSON");
+	System.err.println("  -vcd F      write the waveforms of all signals to F as a VCD file instead");
+	System.err.println("              of printing the traces; if F is a directory, to a file");
+	System.err.println("              in it named after the .hw file");
+	System.err.println("  -cache DIR  keep the parsed and optimized circuits in DIR, and take");
+	System.err.println("              them from there while the design is unchanged");
+	System.err.println("  -server W   run as a server, taking jobs from stdin (W is -), a TCP");
+	System.err.println("              port on localhost (W is a number) or a Unix socket;");
+	System.err.println("              it runs one job at a time\n");
+	System.exit(-1);
+    }
+
+    // the .hw files an argument stands for: itself, the files in a
+    // directory, or the files matching a glob
+    static List<String> expand(String arg) throws IOException {
+	List<String> files=new ArrayList<String>();
+	Path dir=Paths.get(arg);
+	String glob="*.hw";
+	if (arg.contains("*") || arg.contains("?")) {
+	    glob=dir.getFileName().toString();
+	    dir=dir.getParent();
+	} else if (!Files.isDirectory(dir)) {
+	    files.add(arg);
+	    return files;
+	}
+	try (DirectoryStream<Path> entries=Files.newDirectoryStream(dir==null ? Paths.get(".") : dir,glob)) {
+	    for (Path p : entries)
+		files.add(dir==null ? p.getFileName().toString() : p.toString());
+	}
+	Collections.sort(files);
+	return files;
+    }
+
+    /* Simulates the files on a pool of workers, all in this JVM. The
+       output of every file is collected and printed in the order of
+       the files, each block headed by the file name, together with
+       the time the file took. A file that fails gets its error instead,
+       and the others go on; the result is whether all of them worked. */
+    static boolean runBatch(List<String> filenames) {
+	ExecutorService pool=Executors.newFixedThreadPool(Math.max(1,jobs));
+	List<Future<String[]>> results=new ArrayList<Future<String[]>>();
+	for (String filename : filenames) {
+	    results.add(pool.submit(() -> {
+		StringWriter out=new StringWriter();
+		StringWriter err=new StringWriter();
+		long start=System.nanoTime();
+		try (PrintWriter o=new PrintWriter(out); PrintWriter e=new PrintWriter(err)) {
+		    simulate(filename,o,e);
+		}
+		long time=System.nanoTime()-start;
+		return new String[]{out.toString(),err.toString(),String.format("%.1f",time/1e6)};
+	    }));
+	}
+	pool.shutdown();
+
+	PrintWriter out=new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out),1<<16));
+	boolean ok=true;
+	for (int i=0; i<filenames.size(); i++) {
+	    String[] result;
+	    try {
+		result=results.get(i).get();
+	    } catch (Exception e) {
+		out.flush();
+		Throwable cause=e.getCause();
+		System.err.println(filenames.get(i)+": "+(cause instanceof SimulationError ? cause.getMessage() : cause));
+		ok=false;
+		continue;
+	    }
+	    out.println("=== "+filenames.get(i));
+	    out.print(result[0]);
+	    out.flush();
+	    System.err.print(result[1]);
+	    System.err.println(filenames.get(i)+": "+result[2]+" ms");
+	}
+	return ok;
+    }
+
+    /* The stimulus in the .simulate section is read by the
+       StimulusScanner, straight from the bytes of the file; ANTLR only
+       gets the text up to the .simulate keyword. */
+    public static Circuit parse(String filename) throws IOException {
+	return parse(filename, Files.readAllBytes(Paths.get(filename)), null);
+    }
+
+    // the text of the file is in bytes, and the time of the phases is
+    // added to prof, if it is not null
+    static Circuit parse(String filename, byte[] bytes, Profile prof) {
+	return parse(filename, bytes, prof, ConsoleErrorListener.INSTANCE, parseTree);
+    }
+
+    // the same, with the syntax errors going to errors and without a
+    // parse tree unless tree is set; it reads no option, so any
+    // thread can call it at any time
+    static Circuit parse(String filename, byte[] bytes, Profile prof, ANTLRErrorListener errors, boolean tree) {
+	StimulusScanner scanner = new StimulusScanner(bytes);
+	int simulate = scanner.find();
+	if (simulate < 0) // let ANTLR report the error
+	    return parse(CharStreams.fromString(new String(bytes, StandardCharsets.UTF_8), filename), prof, errors, tree);
+	CharStream input = CharStreams.fromString(new String(bytes, 0, simulate, StandardCharsets.UTF_8), filename);
+	if (prof != null)
+	    prof.phase("read");
+	Circuit p = parse(input, prof, errors, tree);
+	List<Trace> siminputs = scanner.scan(simulate);
+	if (prof != null)
+	    prof.phase("stimulus");
+	return new Circuit(p.name, p.inputs, p.outputs, p.latches, p.updates, siminputs);
+    }
+
+    public static Circuit parse(CharStream input) {
+	return parse(input, null);
+    }
+
+    static Circuit parse(CharStream input, Profile prof) {
+	return parse(input, prof, ConsoleErrorListener.INSTANCE, parseTree);
+    }
+
+    static Circuit parse(CharStream input, Profile prof, ANTLRErrorListener errors, boolean tree) {
 	// create a lexer/scanner
 	hwLexer lex = new hwLexer(input);
+	lex.removeErrorListeners();
+	lex.addErrorListener(errors);
 	
 	// get the stream of tokens from the scanner
 	CommonTokenStream tokens = new CommonTokenStream(lex);
 	
 	// create a parser
 	hwParser parser = new hwParser(tokens);
-	
-	// and parse anything from the grammar for "start"
+
+	/* Parse in two stages: first with the faster SLL prediction,
+	   bailing out at the first syntax error, which suffices for
+	   nearly every input. Only if that fails, parse again with full
+	   LL prediction, which also reports the errors. */
+	parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+	parser.removeErrorListeners();
+	parser.setErrorHandler(new BailErrorStrategy());
+	try {
+	    return build(parser, prof, tree);
+	} catch (ParseCancellationException e) {
+	    parser.reset();
+	    parser.addErrorListener(errors);
+	    parser.setErrorHandler(new DefaultErrorStrategy());
+	    parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+	    return build(parser, prof, tree);
+	}
+    }
+
+    static Circuit build(hwParser parser, Profile prof, boolean tree) {
+	if (!tree) {
+	    // the AstListener makes the Circuit during the parse
+	    AstListener listener = new AstListener();
+	    parser.setBuildParseTree(false);
+	    parser.removeParseListeners();
+	    parser.addParseListener(listener);
+	    parser.start();
+	    if (prof != null)
+		prof.phase("parse");
+	    return listener.circuit;
+	}
+
+	// parse anything from the grammar for "start"
 	ParseTree parseTree = parser.start();
+	if (prof != null)
+	    prof.phase("parse");
 
 	// The JaxMaker is a visitor that produces html/jax output as a string
 	//String result = new JaxMaker().visit(parseTree);
@@ -47,13 +408,152 @@ public class main {
 	   AST.java). */
 	
 	Circuit p = (Circuit) new AstMaker().visit(parseTree);
-	p.runSimulator(new Environment());
+	if (prof != null)
+	    prof.phase("ast");
+	return p;
+    }
 
-	/* For the second assignment you need to extend the classes of
-	    AST.java with some methods that correspond to running a
-	    simulation of the given hardware for given simulation
-	    inputs. The method for starting the simulation should be
-	    called here for the Circuit p. */
+    // simulates one file with the chosen engine, printing the traces
+    // to out and any reports to err
+    static void simulate(String filename, PrintWriter out, PrintWriter err) throws IOException {
+	Profile prof=profile==null ? null : new Profile(filename);
+	byte[] bytes=Files.readAllBytes(Paths.get(filename));
+	if (prof!=null)
+	    prof.phase("read");
+	simulate(filename,bytes,out,err,prof);
+    }
+
+    // the same for a file whose text is in bytes
+    static void simulate(String filename, byte[] bytes, PrintWriter out, PrintWriter err, Profile prof) throws IOException {
+	CircuitCache cached=cache==null && CircuitCache.resident==null ? null
+	    : new CircuitCache(cache==null ? null : Paths.get(cache),bytes,aig,optimize);
+	Circuit p=cached==null ? null : cached.load();
+	List<String> reports=cached==null ? new ArrayList<String>() : cached.reports;
+	boolean hit=p!=null;
+	if (hit) {
+	    if (prof!=null)
+		prof.phase("cache");
+	} else
+	    p=transform(parse(filename,bytes,prof),reports,prof);
+	for (String report : reports)
+	    err.println(report);
+
+	simulate(filename,p,out,err,prof);
+	if (prof!=null)
+	    // what is left is the printing of the engines that return early
+	    prof.phase("print");
+	if (cached!=null && !hit) {
+	    cached.store(p);
+	    if (prof!=null)
+		prof.phase("cache");
+	}
+	if (prof!=null)
+	    prof.write(Paths.get(profile));
+    }
+
+    // the circuit after -aig and -O, with their reports added to reports
+    static Circuit transform(Circuit p, List<String> reports, Profile prof) {
+	if (aig) {
+	    Aig graph=new Aig(p);
+	    reports.add("And-inverter graph has "+graph.andNodes()+" and nodes");
+	    p=graph.toCircuit();
+	    if (prof!=null)
+		prof.phase("aig");
+	}
+	if (optimize) {
+	    reports.add("Simplifier removed "+p.simplify()+" expression nodes");
+	    if (prof!=null)
+		prof.phase("optimize");
+	}
+	return p;
+    }
+
+    static void simulate(String filename, Circuit p, PrintWriter out, PrintWriter err, Profile prof) throws IOException {
+	if (random>0) {
+	    runRandom(p,random,seed,out);
+	    return;
+	}
+	else if (vcd!=null) {
+	    Path file=Paths.get(vcd);
+	    if (Files.isDirectory(file))
+		file=file.resolve(Paths.get(filename).getFileName().toString().replaceFirst("\\.hw$","")+".vcd");
+	    Vcd.simulate(p,file);
+	    return;
+	}
+	else if (!windows.isEmpty()) {
+	    Checkpoints index=checkpoints!=null ? Checkpoints.load(p,Paths.get(checkpoints))
+		: snapshot>0 ? Checkpoints.run(p,snapshot,Paths.get(snapshotDir))
+		: Checkpoints.run(p,checkpoint,null);
+	    List<List<Trace>> results=index.windows(windows,jobs);
+	    for (int k=0; k<windows.size(); k++) {
+		int[] w=windows.get(k);
+		out.println("--- cycles "+w[0]+" to "+w[1]);
+		Circuit.printTraces(out,Trace.window(p.siminputs,w[0],w[1]+1),results.get(k));
+	    }
+	    return;
+	}
+	else if (snapshot>0 || resume!=null) {
+	    Snapshot from=resume==null ? null : Snapshot.read(Paths.get(resume));
+	    int start=Snapshot.simulate(p,from,snapshot,Paths.get(snapshotDir));
+	    Circuit.printTraces(out,Trace.window(p.siminputs,start,p.simlength),
+				Trace.window(p.simoutputs,start,p.simlength));
+	    return;
+	}
+	else if (jit)
+	    CircuitCompiler.simulate(p);
+	else if (event) {
+	    EventSimulator sim=new EventSimulator(p);
+	    sim.simulate();
+	    err.printf("Event-driven: %d update evaluations, activity %.1f%%\n",
+		       sim.evaluations(),100*sim.activity());
+	}
+	else if (table) {
+	    TruthTable sim=new TruthTable(p);
+	    sim.simulate();
+	    if (sim.reason!=null)
+		err.println("Truth table: not used, "+sim.reason);
+	    else
+		err.printf("Truth table: %d of %d entries computed\n",sim.computed(),sim.size());
+	}
+	else if (parallel>0) {
+	    ParallelSimulator sim=new ParallelSimulator(p,parallel,grain);
+	    sim.simulate();
+	    err.printf("Parallel: %d threads, %d levels, %d level evaluations by the pool\n",
+		       sim.threads(),sim.levels(),sim.parallelLevels());
+	}
+	else if (periodic) {
+	    Periodicity sim=new Periodicity(p);
+	    sim.simulate();
+	    if (sim.period==0)
+		err.println("Periodic: the inputs do not repeat");
+	    else if (sim.found<0)
+		err.printf("Periodic: the inputs repeat every %d cycles from cycle %d, the circuit does not\n",
+			   sim.period,sim.start);
+	    else
+		err.printf("Periodic: repeats every %d cycles from cycle %d, %d cycles filled in\n",
+			   sim.repeat,sim.found-sim.repeat,p.simlength-1-sim.found);
+	}
+	else if (prof!=null)
+	    prof.simulate(p);
+	else
+	    p.simulate(new Environment());
+	if (prof!=null)
+	    prof.phase("simulate");
+	Circuit.printTraces(out,p.siminputs,p.simoutputs);
+	if (prof!=null)
+	    prof.phase("print");
+    }
+
+    // regression run: random stimulus of the same length as in the file,
+    // 64 testbenches per pass of the bit-parallel engine
+    static void runRandom(Circuit p, int n, long seed, PrintWriter out) {
+	Random rnd=new Random(seed);
+	List<List<Trace>> testbenches=new ArrayList<List<Trace>>();
+	for (int k=0; k<n; k++)
+	    testbenches.add(LaneSimulator.randomTestbench(p,rnd));
+	List<List<Trace>> results=new LaneSimulator(p).run(testbenches);
+	for (int k=0; k<n; k++)
+	    Circuit.printTraces(out,testbenches.get(k),results.get(k));
     }
 }
 
@@ -101,6 +601,70 @@ class JaxMaker extends AbstractParseTreeVisitor<String> implements hwVisitor<Str
 
 }
 
+// The listener producing the Abstract Syntax during the parse, when
+// the parser builds no parse tree. The parser exits the operands of an
+// expression before the expression itself, so the expressions are put
+// together on a stack.
+
+class AstListener extends hwBaseListener {
+    Circuit circuit;
+    private List<Latch> latches=new ArrayList<Latch>();
+    private List<Update> updates=new ArrayList<Update>();
+    private List<Trace> siminp=new ArrayList<Trace>();
+    private ArrayDeque<Expr> stack=new ArrayDeque<Expr>();
+
+    // the parser also exits the rules when it gives up on a syntax
+    // error, so the stack can be short of operands
+    private Expr pop(){
+	return stack.isEmpty() ? null : stack.pop();
+    }
+
+    public void exitStart(hwParser.StartContext ctx){
+	if (ctx.exception!=null)
+	    return; // the parse was given up
+	List<String> ins=new ArrayList<String>();
+	for(Token t:ctx.ins){
+	    ins.add(t.getText());
+	}
+	List<String> outs=new ArrayList<String>();
+	for(Token t:ctx.outs){
+	    outs.add(t.getText());
+	}
+	circuit=new Circuit(ctx.name.getText(),ins,outs,latches,updates,siminp);
+    }
+
+    public void exitSimInp(hwParser.SimInpContext ctx){
+	siminp.add(new Trace(ctx.in.getText(),ctx.str.getText()));
+    }
+
+    public void exitLatchdecl(hwParser.LatchdeclContext ctx){
+	latches.add(new Latch(ctx.in.getText(),ctx.out.getText()));
+    }
+
+    public void exitUpdatedecl(hwParser.UpdatedeclContext ctx){
+	updates.add(new Update(ctx.write.getText(),pop()));
+	ctx.e=null; // so the contexts of the expression can be collected
+    }
+
+    public void exitSignal(hwParser.SignalContext ctx){
+	stack.push(new Signal(ctx.x.getText()));
+    }
+
+    public void exitConjunction(hwParser.ConjunctionContext ctx){
+	Expr e2=pop();
+	stack.push(new Conjunction(pop(),e2));
+    }
+
+    public void exitDisjunction(hwParser.DisjunctionContext ctx){
+	Expr e2=pop();
+	stack.push(new Disjunction(pop(),e2));
+    }
+
+    public void exitNegation(hwParser.NegationContext ctx){
+	stack.push(new Negation(pop()));
+    }
+}
+
 // The visitor for producing the Abstract Syntax (see AST.java).
 
 class AstMaker extends AbstractParseTreeVisitor<AST> implements hwVisitor<AST> {
@@ -129,15 +693,9 @@ class AstMaker extends AbstractParseTreeVisitor<AST> implements hwVisitor<AST> {
     };
 
     public AST visitSimInp(hwParser.SimInpContext ctx){
-	String s=ctx.str.getText();
-	// s is a string consisting of characters '0' and '1' (not numbers!)
-	Boolean[] tr=new Boolean[s.length()];
-	// for the simulation it is more convenient to work with
-	// Booleans, so converting the string s to an array of
-	// Booleans here:	
-	for(int i=0; i<s.length();i++)
-	    tr[i]=(s.charAt(i)=='1'); 
-	return new Trace(ctx.in.getText(),tr);
+	// the string consists of characters '0' and '1' (not numbers!),
+	// which Trace packs into bits
+	return new Trace(ctx.in.getText(),ctx.str.getText());
     }
     
     public AST visitLatchdecl(hwParser.LatchdeclContext ctx){